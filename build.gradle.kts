@@ -2,6 +2,7 @@ plugins {
     `java-library`
     `maven`
     `eclipse`
+    id("me.champeau.gradle.jmh") version "0.5.3"
 }
 
 repositories {
@@ -20,3 +21,14 @@ tasks.test {
     // Use junit platform for unit tests.
     useJUnitPlatform()
 }
+
+jmh {
+    // ./gradlew jmh -Pjmh.include=Splitter runs a subset
+    jmhVersion = "1.26"
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    if (project.hasProperty("jmh.include")) {
+        include = listOf(project.property("jmh.include") as String)
+    }
+}
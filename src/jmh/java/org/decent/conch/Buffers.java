@@ -0,0 +1,37 @@
+package org.decent.conch;
+
+/**
+ * Scratch buffers of a given size, shaped like what users keep in Conch:
+ * imports, small methods, variables and statements using them.
+ */
+final class Buffers {
+
+    private Buffers() {
+    }
+
+    static String script(int statements) {
+        var sb = new StringBuilder("import java.util.*;\n");
+        for (int i = 0; i < statements; i++) {
+            switch (i % 5) {
+            case 0:
+                sb.append("var list").append(i).append(" = new ArrayList<String>();\n");
+                break;
+            case 1:
+                sb.append("list").append(i - 1).append(".add(\"item; {").append(i).append("}\");\n");
+                break;
+            case 2:
+                sb.append("int square").append(i).append("(int x) {\n    return x * x; // ;\n}\n");
+                break;
+            case 3:
+                sb.append("if (square").append(i - 1).append("(").append(i).append(") > 10) {\n")
+                        .append("    list").append(i - 3).append(".clear();\n} else {\n    /* } */\n}\n");
+                break;
+            default:
+                sb.append("String s").append(i).append(" = String.format(\"%d\", ").append(i).append(");\n");
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.decent.conch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import jdk.jshell.JShell;
+import jdk.jshell.SourceCodeAnalysis;
+
+/**
+ * Cost of one completion request at the end of buffers of growing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompletionBenchmark {
+
+    @Param({ "100", "1000", "5000" })
+    int statements;
+
+    JShell shell;
+    SourceCodeAnalysis analyzer;
+    String text;
+    int cursor;
+    int[] window;
+
+    @Setup
+    public void setup() {
+        shell = JShell.create();
+        analyzer = shell.sourceCodeAnalysis();
+        text = Buffers.script(statements) + "String str = \"\";\nstr.len";
+        cursor = text.length();
+        var boundaries = new SnippetBoundaries();
+        boundaries.reset(1);
+        window = boundaries.enclosing(analyzer, text, cursor, 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        shell.close();
+    }
+
+    @Benchmark
+    public Object compInfoWholeBuffer() {
+        return new ConchCompletionProvider.CompInfo(analyzer, text, 0, text.length(), cursor, 1);
+    }
+
+    @Benchmark
+    public Object compInfoEnclosingSnippet() {
+        return new ConchCompletionProvider.CompInfo(analyzer, text, window[0], window[1], cursor, 1);
+    }
+
+    @Benchmark
+    public Object enclosingSnippetCold() {
+        var boundaries = new SnippetBoundaries();
+        boundaries.reset(1);
+        return boundaries.enclosing(analyzer, text, cursor, 1);
+    }
+
+}
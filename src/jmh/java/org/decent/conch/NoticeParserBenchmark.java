@@ -0,0 +1,55 @@
+package org.decent.conch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fife.ui.rsyntaxtextarea.RSyntaxDocument;
+import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
+import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reparsing a buffer that carries notices, what RSyntaxTextArea does after
+ * every run and on its parser delay.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NoticeParserBenchmark {
+
+    @Param({ "1000", "5000" })
+    int statements;
+
+    @Param({ "10", "1000" })
+    int notices;
+
+    NoticeParser parser;
+    RSyntaxDocument doc;
+
+    @Setup
+    public void setup() {
+        System.setProperty("java.awt.headless", "true");
+        var textArea = new RSyntaxTextArea();
+        textArea.setSyntaxEditingStyle(SyntaxConstants.SYNTAX_STYLE_JAVA);
+        textArea.setText(Buffers.script(statements));
+        doc = (RSyntaxDocument) textArea.getDocument();
+        parser = new NoticeParser(textArea);
+        int step = Math.max(1, doc.getLength() / notices);
+        for (int i = 0; i < notices; i++) {
+            int start = Math.min(doc.getLength() - 1, i * step);
+            parser.add(Notice.error(start, start + 1, "error " + i));
+        }
+    }
+
+    @Benchmark
+    public Object parse() {
+        return parser.parse(doc, SyntaxConstants.SYNTAX_STYLE_JAVA);
+    }
+
+}
@@ -0,0 +1,48 @@
+package org.decent.conch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jdk.jshell.JShell;
+
+/**
+ * Parsing the signatures of the documentation JShell returns for commonly
+ * completed overloaded methods.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SignatureBenchmark {
+
+    List<String> signatures;
+
+    @Setup
+    public void setup() {
+        signatures = new ArrayList<>();
+        try (var shell = JShell.create()) {
+            var analyzer = shell.sourceCodeAnalysis();
+            for (var code : List.of("String.format(", "java.util.Map.of(", "java.util.List.of(",
+                    "new java.util.HashMap<>(", "java.util.Arrays.asList(", "System.out.println(")) {
+                analyzer.documentation(code, code.length(), false).forEach(d -> signatures.add(d.signature()));
+            }
+        }
+    }
+
+    @Benchmark
+    public void tryParse(Blackhole bh) {
+        for (var sig : signatures) {
+            bh.consume(ConchCompletionProvider.Signature.tryParse(sig));
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package org.decent.conch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import jdk.jshell.JShell;
+import jdk.jshell.SourceCodeAnalysis;
+
+/**
+ * Splitting a buffer into snippets, as "run all" does before evaluating.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SplitterBenchmark {
+
+    @Param({ "100", "1000", "2000" })
+    int statements;
+
+    JShell shell;
+    SourceCodeAnalysis analyzer;
+    String text;
+
+    @Setup
+    public void setup() {
+        shell = JShell.create();
+        analyzer = shell.sourceCodeAnalysis();
+        text = Buffers.script(statements);
+    }
+
+    @TearDown
+    public void tearDown() {
+        shell.close();
+    }
+
+    @Benchmark
+    public Object snippetSplitter() {
+        return SnippetSplitter.split(analyzer, text);
+    }
+
+    /**
+     * The previous approach, analyzing the whole remaining text for every
+     * snippet, for comparison.
+     */
+    @Benchmark
+    public int remainderLoop() {
+        var remaining = text;
+        int snippets = 0;
+        do {
+            var c = analyzer.analyzeCompletion(remaining);
+            if (!c.completeness().isComplete()) {
+                break;
+            }
+            snippets++;
+            remaining = c.remaining();
+        } while (!remaining.isEmpty());
+        return snippets;
+    }
+
+}
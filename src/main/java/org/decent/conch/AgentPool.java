@@ -0,0 +1,270 @@
+package org.decent.conch;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import jdk.jshell.execution.StreamingExecutionControl;
+import jdk.jshell.execution.Util;
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionEnv;
+
+/**
+ * Agent JVMs started ahead of use, so that a session running out of process
+ * does not wait for a JVM to start. Every agent serves one session: taking
+ * one starts its replacement in the background, and closing the session
+ * kills the agent, whose state can't be reset. Agents run {@link ConchAgent}
+ * with the host's class path, warm up, and connect back over the loopback
+ * interface, identified by a random token. The token is written to the
+ * agent's standard input, as arguments can be read by other users.
+ * <p>
+ * Pools are shared by the sessions using the same JVM options.
+ */
+final class AgentPool {
+
+    private static final long CONNECT_TIMEOUT_MILLIS = 30_000;
+    private static final Map<List<String>, AgentPool> pools = new HashMap<>();
+    private static final SecureRandom random = new SecureRandom();
+
+    private final List<String> vmOptions;
+    private final BlockingQueue<CompletableFuture<Agent>> agents = new LinkedBlockingQueue<>();
+    /** Starts one agent at a time, accepting its connections */
+    private final ExecutorService starter = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "conch-agents");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ServerSocket server;
+
+    private AgentPool(int size, List<String> vmOptions) throws IOException {
+        this.vmOptions = vmOptions;
+        this.server = new ServerSocket(0, size, InetAddress.getLoopbackAddress());
+        for (int i = 0; i < size; i++) {
+            agents.add(startAgent());
+        }
+    }
+
+    /**
+     * The pool of agents started with {@code vmOptions}, created with
+     * {@code size} agents if there is none yet.
+     */
+    static synchronized AgentPool shared(int size, List<String> vmOptions) throws IOException {
+        var pool = pools.get(vmOptions);
+        if (pool == null) {
+            pool = new AgentPool(Math.max(1, size), List.copyOf(vmOptions));
+            pools.put(pool.vmOptions, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Takes a started agent, waiting for one if none is ready yet, and
+     * starts its replacement.
+     */
+    Agent take() throws IOException {
+        while (true) {
+            var next = agents.poll();
+            agents.add(startAgent());
+            if (next == null) {
+                continue;
+            }
+            try {
+                var agent = next.get(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (agent.process.isAlive()) {
+                    return agent;
+                }
+                agent.kill();
+            } catch (ExecutionException e) {
+                throw new IOException("Starting an agent failed", e.getCause());
+            } catch (TimeoutException e) {
+                throw new IOException("No agent connected in " + CONNECT_TIMEOUT_MILLIS + " ms");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private CompletableFuture<Agent> startAgent() {
+        var future = new CompletableFuture<Agent>();
+        starter.execute(() -> {
+            try {
+                future.complete(launch());
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private Agent launch() throws IOException {
+        long token = random.nextLong();
+        var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(vmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ConchAgent.class.getName());
+        command.add(Integer.toString(server.getLocalPort()));
+        var process = new ProcessBuilder(command)
+                .redirectOutput(Redirect.DISCARD)
+                .redirectError(Redirect.INHERIT)
+                .start();
+        try (var out = new DataOutputStream(process.getOutputStream())) {
+            out.writeLong(token);
+        } catch (IOException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+
+        Socket control = null;
+        Socket protocol = null;
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        try {
+            while (control == null || protocol == null) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0 || !process.isAlive()) {
+                    throw new IOException("Agent did not connect, exit code "
+                            + (process.isAlive() ? "none" : process.exitValue()));
+                }
+                server.setSoTimeout((int) Math.min(left, 1000));
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+                socket.setSoTimeout((int) CONNECT_TIMEOUT_MILLIS);
+                var in = new DataInputStream(socket.getInputStream());
+                try {
+                    if (in.readLong() != token) {
+                        // a late agent that was given up on, or a stranger
+                        socket.close();
+                    } else if (in.readByte() == ConchAgent.CONTROL) {
+                        control = socket;
+                    } else {
+                        protocol = socket;
+                    }
+                } catch (IOException e) {
+                    socket.close();
+                }
+            }
+            control.setSoTimeout(0);
+            protocol.setSoTimeout(0);
+            return new Agent(process, protocol, control);
+        } catch (IOException e) {
+            process.destroyForcibly();
+            close(control);
+            close(protocol);
+            throw e;
+        }
+    }
+
+    private static void close(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    /**
+     * A started agent JVM, connected and waiting for its session.
+     */
+    static final class Agent {
+
+        private final Process process;
+        private final Socket protocol;
+        private final Socket control;
+
+        private Agent(Process process, Socket protocol, Socket control) {
+            this.process = process;
+            this.protocol = protocol;
+            this.control = control;
+        }
+
+        /**
+         * The execution engine of a session running on this agent, with the
+         * session's input and output.
+         */
+        ExecutionControl connect(ExecutionEnv env) throws IOException {
+            Map<String, OutputStream> outputs = Map.of("out", env.userOut(), "err", env.userErr());
+            Map<String, InputStream> inputs = Map.of("in", env.userIn());
+            return Util.remoteInputOutput(protocol.getInputStream(), protocol.getOutputStream(), outputs, inputs,
+                    (in, out) -> new AgentExecutionControl(out, in, this));
+        }
+
+        private void stop() throws IOException {
+            var out = control.getOutputStream();
+            out.write(ConchAgent.STOP);
+            out.flush();
+        }
+
+        private void kill() {
+            close(control);
+            close(protocol);
+            process.destroyForcibly();
+        }
+
+    }
+
+    /**
+     * The host side of the protocol, stopping snippets through the control
+     * connection and killing the agent when the session closes.
+     */
+    private static final class AgentExecutionControl extends StreamingExecutionControl {
+
+        private final Agent agent;
+
+        AgentExecutionControl(ObjectOutput out, ObjectInput in, Agent agent) {
+            super(out, in);
+            this.agent = agent;
+        }
+
+        @Override
+        public void stop() throws EngineTerminationException, InternalException {
+            try {
+                agent.stop();
+            } catch (IOException e) {
+                throw new EngineTerminationException("Agent is gone: " + e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                super.close();
+            } finally {
+                agent.kill();
+            }
+        }
+
+    }
+
+}
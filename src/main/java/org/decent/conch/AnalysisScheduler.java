@@ -0,0 +1,92 @@
+package org.decent.conch;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs source code analysis on a background thread. Requests are debounced
+ * and only the latest one is published: scheduling a new task cancels the
+ * previous one, and a result that was superseded while it was computed is
+ * dropped. A running analysis is never interrupted: javac reads class files
+ * through channels that an interrupt closes for good. Must be used from the
+ * EDT, results are published on the EDT.
+ */
+final class AnalysisScheduler {
+
+    private final ScheduledExecutorService executor;
+    private final long delayMillis;
+    private ScheduledFuture<?> pending;
+    private long generation;
+
+    AnalysisScheduler(long delayMillis) {
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            var t = new Thread(r, "conch-analysis");
+            t.setDaemon(true);
+            return t;
+        });
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * A scheduler with its own latest request that runs on the thread of
+     * {@code shared}, so the analyzer is never used concurrently.
+     */
+    AnalysisScheduler(AnalysisScheduler shared, long delayMillis) {
+        this.executor = shared.executor;
+        this.delayMillis = delayMillis;
+    }
+
+    <T> void schedule(Callable<T> task, Consumer<T> publish) {
+        schedule(task, publish, () -> {
+        });
+    }
+
+    /**
+     * Like {@link #schedule(Callable, Consumer)}, and runs {@code failed} on
+     * the EDT if the task throws, even if it was superseded meanwhile.
+     */
+    <T> void schedule(Callable<T> task, Consumer<T> publish, Runnable failed) {
+        cancel();
+        long gen = generation;
+        pending = executor.schedule(() -> {
+            T result;
+            try {
+                result = task.call();
+            } catch (Exception e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(failed);
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (gen == generation) {
+                    pending = null;
+                    publish.accept(result);
+                }
+            });
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void cancel() {
+        generation++;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * Cancels the latest request and ends the thread once the running
+     * analysis, if any, is done.
+     */
+    void shutdown() {
+        cancel();
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,186 @@
+package org.decent.conch;
+
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+import javax.swing.SwingUtilities;
+
+import jdk.jshell.JShell;
+
+/**
+ * Code running in a session of its own, forked from the panel's session: a
+ * new shell in which the declarations of the panel's session are replayed,
+ * see {@link SessionJournal#snapshot(JShell)}. Variables are initialized
+ * again, state changed by statements is not carried over.
+ * <p>
+ * The state shown by {@link JobsPanel} is EDT confined, the job itself runs
+ * on a job thread. The log keeps the last {@value #MAX_LOG_LINES} lines.
+ */
+final class BackgroundJob {
+
+    static final int MAX_LOG_LINES = 1000;
+
+    enum State {
+        WAITING("Waiting"), FORKING("Forking"), RUNNING("Running"), DONE("Done"), FAILED("Failed"),
+        CANCELLED("Cancelled");
+
+        private final String label;
+
+        State(String label) {
+            this.label = label;
+        }
+
+        boolean isFinished() {
+            return this == DONE || this == FAILED || this == CANCELLED;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    final String code;
+    private final Runnable changed;
+
+    // EDT confined
+    State state = State.WAITING;
+    int snippets;
+    String result = "";
+    private final ArrayDeque<String> log = new ArrayDeque<>();
+    long startNanos;
+    long endNanos;
+
+    private volatile boolean cancelled;
+    /** Whether a snippet was rejected or threw, job thread only */
+    private boolean failed;
+    private volatile ConchEngine engine;
+
+    /**
+     * A job running {@code code}, {@code changed} is called on the EDT when
+     * its state changes.
+     */
+    BackgroundJob(String code, Runnable changed) {
+        this.code = code;
+        this.changed = changed;
+    }
+
+    String title() {
+        var s = code.strip();
+        int nl = s.indexOf('\n');
+        return nl < 0 ? s : s.substring(0, nl) + "\u2026";
+    }
+
+    /** The last lines of the values and messages of the job */
+    String log() {
+        return log.isEmpty() ? "" : String.join("\n", log) + "\n";
+    }
+
+    private void log(String line) {
+        log.add(line);
+        if (log.size() > MAX_LOG_LINES) {
+            log.removeFirst();
+        }
+    }
+
+    /** The running time in milliseconds, 0 if not started yet */
+    long elapsedMillis() {
+        if (startNanos == 0) {
+            return 0;
+        }
+        return ((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos) / 1_000_000;
+    }
+
+    /**
+     * Forks a session with {@code shells} and runs the job in it, on the
+     * calling job thread.
+     */
+    void run(SessionJournal declarations, Supplier<JShell> shells) {
+        if (cancelled) {
+            return;
+        }
+        update(() -> state = State.FORKING);
+        try (var shell = shells.get()) {
+            declarations.restore(shell);
+            var forked = new ConchEngine(shell);
+            forked.setProfilerThreshold(-1);
+            engine = forked;
+            if (cancelled) {
+                finish(State.CANCELLED);
+                return;
+            }
+            long start = System.nanoTime();
+            update(() -> {
+                state = State.RUNNING;
+                startNanos = start;
+            });
+            boolean ok = forked.evaluate(code, new ConchEngine.Listener() {
+
+                @Override
+                public void value(String name, String value) {
+                    var line = name == null ? value : name + " => " + value;
+                    update(() -> {
+                        result = line;
+                        log(line);
+                    });
+                }
+
+                @Override
+                public void notice(Notice notice) {
+                    var msg = notice.message(null);
+                    failed |= notice.isError();
+                    update(() -> {
+                        if (notice.isError()) {
+                            // without the stack trace
+                            int nl = msg.indexOf('\n');
+                            result = nl < 0 ? msg : msg.substring(0, nl);
+                        }
+                        log(msg);
+                    });
+                }
+
+                @Override
+                public void metrics(EvalMetrics metrics) {
+                    update(() -> snippets++);
+                }
+
+            });
+            finish(cancelled ? State.CANCELLED : ok && !failed ? State.DONE : State.FAILED);
+        } catch (RuntimeException e) {
+            update(() -> log(e.toString()));
+            finish(cancelled ? State.CANCELLED : State.FAILED);
+        }
+    }
+
+    /**
+     * Cancels the job: stops the snippet running, or the job from starting.
+     * Must be called on the EDT.
+     */
+    void cancel() {
+        cancelled = true;
+        var running = engine;
+        if (running != null) {
+            running.stop();
+        }
+        if (state == State.WAITING) {
+            state = State.CANCELLED;
+            changed.run();
+        }
+    }
+
+    private void finish(State end) {
+        long now = System.nanoTime();
+        update(() -> {
+            state = end;
+            endNanos = now;
+        });
+    }
+
+    private void update(Runnable update) {
+        SwingUtilities.invokeLater(() -> {
+            update.run();
+            changed.run();
+        });
+    }
+
+}
@@ -0,0 +1,152 @@
+package org.decent.conch;
+
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Captures what a snippet writes to its standard output or error. Bytes are
+ * collected into chunks of at most one line, which are queued until the UI
+ * {@link #drain(int, Consumer) drains} them. The queue is bounded: when it is
+ * full, writers either wait for the UI to catch up or, by default, the chunk
+ * is dropped and counted, and a "lines elided" marker is emitted instead.
+ * A character split by a chunk boundary is carried over to the next chunk.
+ */
+final class CaptureStream extends OutputStream {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final CharsetDecoder decoder;
+    private final int capacity;
+    private final Runnable onData;
+    private final ArrayDeque<String> chunks = new ArrayDeque<>();
+    private final byte[] buf = new byte[CHUNK_SIZE];
+    private int count;
+    private long elided;
+    private volatile boolean block;
+
+    /**
+     * @param capacity the number of chunks that can be queued
+     * @param onData   called by the writing thread when the queue stops being
+     *                 empty
+     */
+    CaptureStream(Charset charset, int capacity, Runnable onData) {
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.capacity = capacity;
+        this.onData = onData;
+    }
+
+    /**
+     * Sets whether writers wait for the queue to drain instead of dropping
+     * output. Writes from the EDT never wait.
+     */
+    void setBlocking(boolean block) {
+        this.block = block;
+    }
+
+    @Override
+    public synchronized void write(int b) throws InterruptedIOException {
+        buf[count++] = (byte) b;
+        if (b == '\n' || count == buf.length) {
+            emit();
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws InterruptedIOException {
+        int end = off + len;
+        while (off < end) {
+            int n = Math.min(end - off, buf.length - count);
+            int nl = -1;
+            for (int i = 0; i < n; i++) {
+                if (b[off + i] == '\n') {
+                    nl = i;
+                    break;
+                }
+            }
+            if (nl >= 0) {
+                n = nl + 1;
+            }
+            System.arraycopy(b, off, buf, count, n);
+            count += n;
+            off += n;
+            if (nl >= 0 || count == buf.length) {
+                emit();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws InterruptedIOException {
+        if (count > 0) {
+            emit();
+        }
+    }
+
+    /**
+     * Passes up to {@code max} queued chunks to {@code sink}, followed by a
+     * marker if output was dropped since the last time the queue was empty.
+     * Returns {@code true} if chunks are left in the queue.
+     */
+    synchronized boolean drain(int max, Consumer<String> sink) {
+        for (int i = 0; i < max && !chunks.isEmpty(); i++) {
+            sink.accept(chunks.poll());
+        }
+        if (chunks.isEmpty() && elided > 0) {
+            sink.accept("\u2026 " + elided + " lines elided\n");
+            elided = 0;
+        }
+        notifyAll();
+        return !chunks.isEmpty();
+    }
+
+    private void emit() throws InterruptedIOException {
+        var in = ByteBuffer.wrap(buf, 0, count);
+        var out = CharBuffer.allocate((int) (count * decoder.maxCharsPerByte()) + 1);
+        // the bytes of an incomplete character stay in the buffer
+        decoder.decode(in, out, false);
+        count = in.remaining();
+        System.arraycopy(buf, in.position(), buf, 0, count);
+        var text = out.flip().toString();
+        if (text.isEmpty()) {
+            return;
+        }
+        while (chunks.size() >= capacity) {
+            if (!block || SwingUtilities.isEventDispatchThread()) {
+                elided += Math.max(1, newlines(text));
+                return;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        chunks.add(text);
+        if (chunks.size() == 1) {
+            onData.run();
+        }
+    }
+
+    private static int newlines(String text) {
+        int n = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                n++;
+            }
+        }
+        return n;
+    }
+
+}
@@ -0,0 +1,216 @@
+package org.decent.conch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * How often and how recently completions were accepted, turned into a
+ * relevance boost. Completions are keyed by a 64 bit hash of their text in an
+ * open addressing table of primitive arrays, so scoring a popup of many
+ * thousand candidates is a hash and a probe per candidate.
+ */
+final class CompletionRanking {
+
+    private static final int MAGIC = 0x434f4e52; // "CONR"
+    static final int MAX_ENTRIES = 1 << 16;
+    /** At most this many entries are left after making room in a full table. */
+    private static final int KEPT_ENTRIES = MAX_ENTRIES / 4 * 3;
+    /** Acceptances within this many recent ones get a recency boost. */
+    private static final int RECENT = 256;
+
+    private static CompletionRanking persistent;
+
+    private long[] keys = new long[64];
+    private int[] counts = new int[64];
+    private int[] lastUse = new int[64];
+    private int size;
+    private int tick;
+
+    /**
+     * The ranking in {@code ~/.conch/ranking.bin}, loaded on first use and
+     * written back when the JVM exits.
+     */
+    static synchronized CompletionRanking persistent() {
+        if (persistent == null) {
+            var file = Path.of(System.getProperty("user.home"), ".conch", "ranking.bin");
+            var ranking = new CompletionRanking();
+            if (Files.isRegularFile(file)) {
+                try {
+                    ranking.load(file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    ranking.save(file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "conch-ranking"));
+            persistent = ranking;
+        }
+        return persistent;
+    }
+
+    /** 64 bit FNV-1a, never 0 which marks free slots. */
+    static long key(String text) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    synchronized void accepted(long key) {
+        tick++;
+        int slot = slot(keys, key);
+        if (keys[slot] == 0) {
+            if (size + 1 > MAX_ENTRIES) {
+                evict();
+            } else if (2 * (size + 1) > keys.length) {
+                rehash(2 * keys.length, false, Long.MIN_VALUE);
+            }
+            slot = slot(keys, key);
+            keys[slot] = key;
+            size++;
+        }
+        if (counts[slot] < Integer.MAX_VALUE) {
+            counts[slot]++;
+        }
+        lastUse[slot] = tick;
+    }
+
+    /**
+     * Relevance to add for {@code key}: grows with the log of the acceptance
+     * count, plus up to 16 if it was among the last {@value #RECENT}
+     * acceptances. 0 for completions never accepted.
+     */
+    synchronized int boost(long key) {
+        int slot = slot(keys, key);
+        if (keys[slot] == 0) {
+            return 0;
+        }
+        int frequency = Math.min(80, 8 * (32 - Integer.numberOfLeadingZeros(counts[slot])));
+        int age = tick - lastUse[slot];
+        int recency = age < RECENT ? (RECENT - age) / 16 : 0;
+        return frequency + recency;
+    }
+
+    private static int slot(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int i = (int) (key ^ (key >>> 32)) & mask;
+        while (keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Makes room in the full table: halves the counts, forgetting what drops
+     * to zero, and if more than {@value #KEPT_ENTRIES} entries are left, also
+     * the least accepted and least recent ones. So a full table is rehashed
+     * once per {@code MAX_ENTRIES - KEPT_ENTRIES} new completions at most,
+     * even when halving frees nothing.
+     */
+    private void evict() {
+        var ranks = new long[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0 && counts[i] / 2 > 0) {
+                ranks[n++] = rank(counts[i] / 2, lastUse[i]);
+            }
+        }
+        long minRank = Long.MIN_VALUE;
+        if (n > KEPT_ENTRIES) {
+            Arrays.sort(ranks, 0, n);
+            minRank = ranks[n - KEPT_ENTRIES];
+        }
+        rehash(keys.length, true, minRank);
+    }
+
+    /** Orders by count, then by last use */
+    private static long rank(int count, int lastUse) {
+        return (long) count << 32 | (lastUse & 0xffffffffL);
+    }
+
+    /**
+     * Rehashes into {@code capacity} slots, with {@code decay} halving the
+     * counts first and forgetting what drops to zero. Entries ranked below
+     * {@code minRank} are forgotten too.
+     */
+    private void rehash(int capacity, boolean decay, long minRank) {
+        var oldKeys = keys;
+        var oldCounts = counts;
+        var oldLastUse = lastUse;
+        keys = new long[capacity];
+        counts = new int[capacity];
+        lastUse = new int[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            int count = decay ? oldCounts[i] / 2 : oldCounts[i];
+            if (oldKeys[i] != 0 && count > 0 && rank(count, oldLastUse[i]) >= minRank) {
+                int slot = slot(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = count;
+                lastUse[slot] = oldLastUse[i];
+                size++;
+            }
+        }
+    }
+
+    synchronized void save(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        var tmp = Files.createTempFile(file.getParent(), "ranking", ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(tick);
+            out.writeInt(size);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    out.writeLong(keys[i]);
+                    out.writeInt(counts[i]);
+                    out.writeInt(lastUse[i]);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    synchronized void load(Path file) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            tick = in.readInt();
+            int n = Math.min(in.readInt(), MAX_ENTRIES);
+            int capacity = 64;
+            while (capacity < 2 * n) {
+                capacity *= 2;
+            }
+            keys = new long[capacity];
+            counts = new int[capacity];
+            lastUse = new int[capacity];
+            size = 0;
+            for (int i = 0; i < n; i++) {
+                long key = in.readLong();
+                int slot = slot(keys, key);
+                if (keys[slot] == 0) {
+                    size++;
+                }
+                keys[slot] = key;
+                counts[slot] = in.readInt();
+                lastUse[slot] = in.readInt();
+            }
+        }
+    }
+
+}
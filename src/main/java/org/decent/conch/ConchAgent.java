@@ -0,0 +1,118 @@
+package org.decent.conch;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import jdk.jshell.execution.Util;
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControl.ClassBytecodes;
+import jdk.jshell.spi.ExecutionControl.ExecutionControlException;
+
+/**
+ * The main class of the agent JVMs started by {@link AgentPool}. Like
+ * {@code jdk.jshell.execution.RemoteExecutionControl}, it connects back to
+ * the pool and serves the execution engine protocol, running snippets with a
+ * {@link ConchExecutionControl}. A second connection carries stop requests,
+ * which the protocol connection can't while a snippet runs, and ends the
+ * agent when the host goes away.
+ * <p>
+ * Before connecting, the agent loads and runs a trivial class through its
+ * execution engine, so that the first snippet of its session does not pay
+ * for loading and initializing the engine.
+ */
+public final class ConchAgent {
+
+    static final int PROTOCOL = 0;
+    static final int CONTROL = 1;
+    static final int STOP = 'S';
+
+    private ConchAgent() {
+    }
+
+    /**
+     * Runs in the agent's execution engine to warm it up.
+     */
+    static final class Warmup {
+
+        private Warmup() {
+        }
+
+        static Object run() {
+            return String.valueOf(List.of(1, 2).size());
+        }
+
+    }
+
+    /**
+     * Arguments: the port of the pool. The token identifying this agent is
+     * read from standard input.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        long token = new DataInputStream(System.in).readLong();
+        var ec = new ConchExecutionControl();
+        warmUp(ec);
+        var control = connect(port, token, CONTROL);
+        var protocol = connect(port, token, PROTOCOL);
+        var watcher = new Thread(() -> watch(control, ec), "conch-agent-control");
+        watcher.setDaemon(true);
+        watcher.start();
+
+        Map<String, Consumer<OutputStream>> outputs = Map.of(
+                "out", st -> System.setOut(new PrintStream(st, true)),
+                "err", st -> System.setErr(new PrintStream(st, true)));
+        Map<String, Consumer<InputStream>> inputs = Map.of("in", System::setIn);
+        Util.forwardExecutionControlAndIO(ec, protocol.getInputStream(), protocol.getOutputStream(), outputs,
+                inputs);
+    }
+
+    private static void warmUp(ExecutionControl ec) {
+        var name = Warmup.class.getName();
+        try (var in = Warmup.class.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+            if (in != null) {
+                ec.load(new ClassBytecodes[] { new ClassBytecodes(name, in.readAllBytes()) });
+                ec.invoke(name, "run");
+            }
+        } catch (IOException | ExecutionControlException e) {
+            // only slower
+            e.printStackTrace();
+        }
+    }
+
+    private static Socket connect(int port, long token, int channel) throws IOException {
+        var socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        var out = new DataOutputStream(socket.getOutputStream());
+        out.writeLong(token);
+        out.writeByte(channel);
+        out.flush();
+        return socket;
+    }
+
+    private static void watch(Socket control, ExecutionControl ec) {
+        try (InputStream in = control.getInputStream()) {
+            int request;
+            while ((request = in.read()) >= 0) {
+                if (request == STOP) {
+                    try {
+                        ec.stop();
+                    } catch (ExecutionControlException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // the host is gone
+        }
+        Runtime.getRuntime().halt(0);
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.decent.conch;
+
+import java.util.List;
+import java.util.Map;
+
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControlProvider;
+import jdk.jshell.spi.ExecutionEnv;
+
+/**
+ * Provides an out-of-process execution engine, registered as
+ * {@code "conch-agent"}: snippets run in an agent JVM taken from a pool of
+ * JVMs started ahead of use, see {@link AgentPool}. Parameters:
+ * <ul>
+ * <li>{@code poolSize}: the number of agents kept ready, 2 by default</li>
+ * <li>{@code vmOptions}: the options of the agent JVMs, separated by
+ * whitespace, like {@code -Xmx4g}</li>
+ * </ul>
+ */
+public class ConchAgentProvider implements ExecutionControlProvider {
+
+    @Override
+    public String name() {
+        return "conch-agent";
+    }
+
+    @Override
+    public Map<String, String> defaultParameters() {
+        return Map.of("poolSize", "2", "vmOptions", "");
+    }
+
+    @Override
+    public ExecutionControl generate(ExecutionEnv env, Map<String, String> parameters) throws Throwable {
+        var defaults = defaultParameters();
+        int size = Integer.parseInt(parameters.getOrDefault("poolSize", defaults.get("poolSize")));
+        var options = parameters.getOrDefault("vmOptions", "").strip();
+        var vmOptions = options.isEmpty() ? List.<String>of() : List.of(options.split("\\s+"));
+        return AgentPool.shared(size, vmOptions).take().connect(env);
+    }
+
+}
@@ -2,20 +2,30 @@ package org.decent.conch;
 
 import java.awt.Point;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
+import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
 
+import org.fife.ui.autocomplete.AbstractCompletion;
 import org.fife.ui.autocomplete.BasicCompletion;
 import org.fife.ui.autocomplete.Completion;
+import org.fife.ui.autocomplete.CompletionProvider;
 import org.fife.ui.autocomplete.CompletionProviderBase;
 import org.fife.ui.autocomplete.FunctionCompletion;
 import org.fife.ui.autocomplete.ParameterizedCompletion;
 import org.fife.ui.autocomplete.ParameterizedCompletion.Parameter;
 
+import jdk.jshell.ImportSnippet;
 import jdk.jshell.JShell;
 import jdk.jshell.SourceCodeAnalysis;
 import jdk.jshell.SourceCodeAnalysis.Documentation;
@@ -23,19 +33,212 @@ import jdk.jshell.SourceCodeAnalysis.Suggestion;
 
 class ConchCompletionProvider extends CompletionProviderBase {
 
-    private final JShell shell;
+    private static final int MAX_INDEXED_TYPES = 50;
+    private static final int JAVADOC_CACHE_SIZE = 512;
+    private static final Pattern IMPORT_LINE = Pattern.compile("^import [^;\\n]+;[ \\t]*(\\n|$)",
+            Pattern.MULTILINE);
+
+    private volatile JShell shell;
+    private final AnalysisScheduler scheduler = new AnalysisScheduler(50);
+    private final AnalysisScheduler javadocScheduler = new AnalysisScheduler(scheduler, 0);
+    private final SnippetBoundaries boundaries = new SnippetBoundaries();
+    /** Names of the active imports, {@code java.util.*} or {@code java.util.List} */
+    private final Set<String> imports = ConcurrentHashMap.newKeySet();
+    private TypeIndex typeIndex;
+    /** Indexes of the class path added to the session */
+    private final List<TypeIndex> addedIndexes = new ArrayList<>();
+    private CompletionRanking ranking = new CompletionRanking();
+
+    /*
+     * getAlreadyEnteredText and getCompletionsImpl are both called for a single
+     * completion request, so the analysis is cached until the document changes
+     * or the caret moves. Analysis itself runs on the scheduler; until it
+     * finishes the callbacks are answered with a provisional CompInfo.
+     */
+    private Document trackedDoc;
+    private int docVersion;
+    private CompInfo cached;
+    private CompInfo provisional;
+    private boolean requested;
+    private Runnable completionsReady = () -> {
+    };
+
+    /*
+     * Javadoc is only extracted for the completion highlighted in the popup,
+     * when the description window asks for its summary, and kept by signature.
+     * An empty string marks signatures without javadoc.
+     */
+    private final Map<String, String> javadocs = new LinkedHashMap<>(JAVADOC_CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > JAVADOC_CACHE_SIZE;
+        }
+    };
+    private String javadocRequested;
+    private Runnable javadocReady = () -> {
+    };
+    private final DocumentListener versionTracker = Documents.onDocumentChange(e -> {
+        docVersion++;
+        boundaries.edited(e.getOffset(), docVersion);
+    });
 
     public ConchCompletionProvider(JShell shell) {
-        this.shell = shell;
         setParameterizedCompletionParams('(', ", ", ')');
+        setShell(shell);
+    }
+
+    /**
+     * Completes against {@code shell} from now on, used from the EDT when the
+     * session is reset.
+     */
+    void setShell(JShell shell) {
+        if (this.shell != null) {
+            scheduler.cancel();
+            javadocScheduler.cancel();
+            cached = null;
+            provisional = null;
+            javadocRequested = null;
+        }
+        this.shell = shell;
+        imports.clear();
+        shell.imports().forEach(i -> imports.add(i.fullname()));
+        shell.onSnippetEvent(e -> {
+            if (e.snippet() instanceof ImportSnippet && this.shell == shell) {
+                var name = ((ImportSnippet) e.snippet()).fullname();
+                if (e.status().isActive()) {
+                    imports.add(name);
+                } else {
+                    imports.remove(name);
+                }
+            }
+        });
+    }
+
+    /**
+     * Ends the analysis thread, the provider can't be used afterwards. Must
+     * be called on the EDT.
+     */
+    public void dispose() {
+        scheduler.shutdown();
+        javadocScheduler.shutdown();
+    }
+
+    /**
+     * Offers the types of {@code index} that are not imported yet, inserting
+     * the import along with the completion, see
+     * {@link #completionInserted(JTextComponent, Completion)}.
+     */
+    public void setTypeIndex(TypeIndex index) {
+        this.typeIndex = index;
+    }
+
+    /**
+     * Also offers the types of {@code index}, for class path added to the
+     * session.
+     */
+    void addTypeIndex(TypeIndex index) {
+        addedIndexes.add(index);
+    }
+
+    /**
+     * Sets the callback run on the EDT when a background analysis finishes for
+     * a completion request that was answered provisionally, typically
+     * {@link org.fife.ui.autocomplete.AutoCompletion#doCompletion()}.
+     */
+    public void onCompletionsReady(Runnable callback) {
+        this.completionsReady = callback;
+    }
+
+    /**
+     * Sets the callback run on the EDT when the javadoc of the highlighted
+     * completion, which was shown without it, has been extracted.
+     */
+    public void onJavadocReady(Runnable callback) {
+        this.javadocReady = callback;
+    }
+
+    /**
+     * The javadoc of a method completion offered for {@code info}, null while
+     * it is extracted in the background.
+     */
+    private String javadoc(Signature sig, CompInfo info) {
+        var javadoc = javadocs.get(sig.signature);
+        if (javadoc != null || sig.signature.equals(javadocRequested)) {
+            return javadoc;
+        }
+        javadocRequested = sig.signature;
+        var analyzer = shell.sourceCodeAnalysis();
+        // one request documents all overloads at the position
+        javadocScheduler.schedule(() -> analyzer.documentation(info.snippet, info.snippetCursor, true), docs -> {
+            for (var d : docs) {
+                javadocs.put(d.signature(), d.javadoc() == null ? EMPTY_STRING : d.javadoc());
+            }
+            javadocs.putIfAbsent(sig.signature, EMPTY_STRING);
+            if (sig.signature.equals(javadocRequested)) {
+                javadocRequested = null;
+                javadocReady.run();
+            }
+        }, () -> {
+            // let the next request try again
+            if (sig.signature.equals(javadocRequested)) {
+                javadocRequested = null;
+            }
+        });
+        return null;
     }
 
     @Override
     public String getAlreadyEnteredText(JTextComponent comp) {
-        var info = CompInfo.from(shell.sourceCodeAnalysis(), comp);
+        var info = analyze(comp);
         return info.prefix;
     }
 
+    CompInfo analyze(JTextComponent comp) {
+        var doc = comp.getDocument();
+        if (doc != trackedDoc) {
+            if (trackedDoc != null) {
+                trackedDoc.removeDocumentListener(versionTracker);
+            }
+            doc.addDocumentListener(versionTracker);
+            trackedDoc = doc;
+            docVersion++;
+            boundaries.reset(docVersion);
+        }
+        int caret = comp.getCaretPosition();
+        if (isCurrent(cached, caret)) {
+            return cached;
+        }
+        if (isCurrent(provisional, caret)) {
+            return provisional;
+        }
+        var text = CompInfo.textOf(doc);
+        int version = docVersion;
+        var analyzer = shell.sourceCodeAnalysis();
+        requested = false;
+        scheduler.schedule(() -> {
+            var window = boundaries.enclosing(analyzer, text, caret, version);
+            return new CompInfo(analyzer, text, window[0], window[1], caret, version);
+        }, info -> {
+            if (!isCurrent(info, comp.getCaretPosition())) {
+                return;
+            }
+            cached = info;
+            provisional = null;
+            if (requested) {
+                requested = false;
+                completionsReady.run();
+            }
+        });
+        provisional = CompInfo.provisional(cached, text, caret, version);
+        return provisional;
+    }
+
+    private boolean isCurrent(CompInfo info, int caret) {
+        return info != null && info.version == docVersion && info.cursor == caret;
+    }
+
     @Override
     public List<Completion> getCompletionsAt(JTextComponent comp, Point p) {
         System.out.println("getCompletionsAt " + p);
@@ -48,9 +251,110 @@ class ConchCompletionProvider extends CompletionProviderBase {
         return null;
     }
 
+    private List<String> indexedTypes(String prefix) {
+        var ret = new ArrayList<>(typeIndex.find(prefix, MAX_INDEXED_TYPES));
+        for (var index : addedIndexes) {
+            ret.addAll(index.find(prefix, MAX_INDEXED_TYPES - ret.size()));
+        }
+        return ret;
+    }
+
+    /**
+     * An unqualified name that looks like a type: capitalized and not after a
+     * dot.
+     */
+    private static boolean isTypeName(CompInfo info) {
+        return !info.prefix.isEmpty() && Character.isUpperCase(info.prefix.charAt(0))
+                && (info.replaceStart == 0 || info.text.charAt(info.replaceStart - 1) != '.');
+    }
+
+    private boolean needsImport(String fqn, String text) {
+        int dot = fqn.lastIndexOf('.');
+        if (dot < 0) {
+            return false;
+        }
+        var pkg = fqn.substring(0, dot);
+        return !pkg.equals("java.lang") && !imports.contains(fqn) && !imports.contains(pkg + ".*")
+                && !text.contains("import " + fqn + ';') && !text.contains("import " + pkg + ".*;");
+    }
+
+    /**
+     * Called by the auto completion after {@code c} was inserted into
+     * {@code comp}: ranks it up and adds the import of an indexed type, after
+     * the last import line before it or at the top.
+     */
+    void completionInserted(JTextComponent comp, Completion c) {
+        ranking.accepted(CompletionRanking.key(c.toString()));
+        if (!(c instanceof TypeCompletion)) {
+            return;
+        }
+        var fqn = ((TypeCompletion) c).fqn;
+        var doc = comp.getDocument();
+        var text = CompInfo.textOf(doc);
+        if (!needsImport(fqn, text)) {
+            return;
+        }
+        int at = 0;
+        var m = IMPORT_LINE.matcher(text);
+        int caret = comp.getCaretPosition();
+        while (m.find() && m.end() <= caret) {
+            at = m.end();
+        }
+        try {
+            doc.insertString(at, "import " + fqn + ";\n", null);
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Ranks completions by how often and recently they were accepted, by
+     * default for this provider only.
+     */
+    public void setRanking(CompletionRanking ranking) {
+        this.ranking = ranking;
+    }
+
+    private int boost(Completion c) {
+        return ranking.boost(CompletionRanking.key(c.toString()));
+    }
+
+    /**
+     * Orders the completions, including the parent's, by relevance. Parent
+     * completions are reused between requests, so they get the usage boost
+     * itself rather than an addition to it. The sort goes through packed
+     * {@code relevance << 32 | index} longs and keeps the order of equally
+     * relevant completions.
+     */
+    @Override
+    public List<Completion> getCompletions(JTextComponent comp) {
+        var completions = super.getCompletions(comp);
+        if (completions == null || completions.size() < 2) {
+            return completions;
+        }
+        int n = completions.size();
+        var order = new long[n];
+        for (int i = 0; i < n; i++) {
+            var c = completions.get(i);
+            if (c.getProvider() != this && c instanceof AbstractCompletion) {
+                ((AbstractCompletion) c).setRelevance(boost(c));
+            }
+            order[i] = (long) -c.getRelevance() << 32 | i;
+        }
+        Arrays.sort(order);
+        var sorted = new ArrayList<Completion>(n);
+        for (var o : order) {
+            sorted.add(completions.get((int) o));
+        }
+        return sorted;
+    }
+
     @Override
     protected List<Completion> getCompletionsImpl(JTextComponent comp) {
-        var info = CompInfo.from(shell.sourceCodeAnalysis(), comp);
+        var info = analyze(comp);
+        if (info.provisional) {
+            requested = true;
+        }
         var ret = new ArrayList<Completion>();
         if (info.documentation.isEmpty()) {
 
@@ -58,9 +362,19 @@ class ConchCompletionProvider extends CompletionProviderBase {
             info.completions.forEach(s -> set.add(s.continuation()));
             for (var suggestion : set) {
                 var c = new BasicCompletion(this, suggestion);
-                c.setRelevance(10);
+                c.setRelevance(10 + boost(c));
                 ret.add(c);
             }
+            if (typeIndex != null && isTypeName(info)) {
+                var text = info.text;
+                for (var fqn : indexedTypes(info.prefix)) {
+                    if (needsImport(fqn, text)) {
+                        var c = new TypeCompletion(this, fqn);
+                        c.setRelevance(5 + boost(c));
+                        ret.add(c);
+                    }
+                }
+            }
 
         } else {
             for (var sig : info.signatures) {
@@ -69,30 +383,141 @@ class ConchCompletionProvider extends CompletionProviderBase {
                     public String toString() {
                         return getDefinitionString();
                     }
+
+                    @Override
+                    public String getSummary() {
+                        var summary = super.getSummary();
+                        var javadoc = javadoc(sig, info);
+                        if (javadoc == null || javadoc.isEmpty()) {
+                            return summary;
+                        }
+                        return (summary == null ? "" : summary) + "<hr>" + javadocHtml(javadoc);
+                    }
                 };
                 if (!sig.fqn.equals(sig.name)) {
                     fn.setDefinedIn(sig.fqn);
                 }
-                // if (d.javadoc() != null) {
-                // fn.setShortDescription("<pre>" + d.javadoc() + "</pre>");
-                // }
                 if (sig.arity > 0) {
-                    var params = new ArrayList<Parameter>(sig.arity);
-                    for (int i = 0; i < sig.arity; i++) {
-                        boolean last = i + 1 == sig.arity;
-                        params.add(new Parameter(sig.paramTypes[i], sig.paramNames[i], last));
-                    }
-                    fn.setParams(params);
+                    fn.setParams(sig.parameters());
                 }
-                fn.setRelevance(100);
+                fn.setRelevance(100 + boost(fn));
                 ret.add(fn);
             }
         }
         return ret;
     }
 
+    /**
+     * The javadoc the analyzer returns is the comment source, HTML with
+     * javadoc tags: inline tags become code, block tags get a line each.
+     */
+    static String javadocHtml(String javadoc) {
+        int len = javadoc.length();
+        var sb = new StringBuilder(len + 64);
+        int i = 0;
+        while (i < len) {
+            char c = javadoc.charAt(i);
+            if (c == '{' && javadoc.startsWith("{@", i)) {
+                int end = i + 2;
+                int depth = 1;
+                while (end < len) {
+                    char e = javadoc.charAt(end);
+                    if (e == '{') {
+                        depth++;
+                    } else if (e == '}' && --depth == 0) {
+                        break;
+                    }
+                    end++;
+                }
+                var tag = javadoc.substring(i + 2, end).trim();
+                int space = tag.indexOf(' ');
+                var name = space < 0 ? tag : tag.substring(0, space);
+                var body = space < 0 ? "" : tag.substring(space + 1).trim();
+                if (name.startsWith("link")) {
+                    body = linkLabel(body);
+                }
+                if (name.equals("literal")) {
+                    sb.append(escapeHtml(body));
+                } else {
+                    sb.append("<code>").append(escapeHtml(body)).append("</code>");
+                }
+                i = end + 1;
+            } else if (c == '@' && lineStartsAt(javadoc, i)) {
+                int end = i + 1;
+                while (end < len && Character.isLetter(javadoc.charAt(end))) {
+                    end++;
+                }
+                sb.append("<br><b>").append(javadoc, i + 1, end).append("</b>");
+                i = end;
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /** {@code target label}: the label, or the target */
+    private static String linkLabel(String link) {
+        int parens = 0;
+        for (int i = 0; i < link.length(); i++) {
+            char c = link.charAt(i);
+            if (c == '(') {
+                parens++;
+            } else if (c == ')') {
+                parens--;
+            } else if (c == ' ' && parens == 0) {
+                return link.substring(i + 1).trim();
+            }
+        }
+        return link.startsWith("#") ? link.substring(1) : link.replace('#', '.');
+    }
+
+    private static boolean lineStartsAt(String text, int pos) {
+        int i = pos - 1;
+        while (i >= 0 && text.charAt(i) == ' ') {
+            i--;
+        }
+        return i < 0 || text.charAt(i) == '\n';
+    }
+
+    private static String escapeHtml(String text) {
+        var sb = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '<':
+                sb.append("&lt;");
+                break;
+            case '>':
+                sb.append("&gt;");
+                break;
+            case '&':
+                sb.append("&amp;");
+                break;
+            default:
+                sb.append(c);
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A type from the {@link TypeIndex}, inserted by simple name and imported.
+     */
+    static class TypeCompletion extends BasicCompletion {
+        final String fqn;
+
+        TypeCompletion(CompletionProvider provider, String fqn) {
+            super(provider, fqn.substring(fqn.lastIndexOf('.') + 1), fqn.substring(0, fqn.lastIndexOf('.')));
+            this.fqn = fqn;
+        }
+    }
+
     static class CompInfo {
 
+        final int version;
         final String text;
         final String prefix;
         final int cursor;
@@ -100,31 +525,82 @@ class ConchCompletionProvider extends CompletionProviderBase {
         final List<Suggestion> completions;
         final List<Documentation> documentation;
         final List<Signature> signatures;
+        /** The analyzed snippet and the cursor in it. */
+        final String snippet;
+        final int snippetCursor;
 
-        static CompInfo from(SourceCodeAnalysis analyzer, JTextComponent comp) {
-            Document doc = comp.getDocument();
-            String text;
+        final boolean provisional;
+
+        static String textOf(Document doc) {
             try {
-                text = doc.getText(0, doc.getLength());
+                return doc.getText(0, doc.getLength());
             } catch (BadLocationException e) {
                 e.printStackTrace();
-                text = EMPTY_STRING;
+                return EMPTY_STRING;
+            }
+        }
+
+        /**
+         * Answers a completion request without the analyzer while the real
+         * analysis is pending: if the caret is still inside the identifier
+         * the previous result was computed for, its suggestions are narrowed
+         * down to the longer prefix.
+         */
+        static CompInfo provisional(CompInfo previous, String text, int cursor, int version) {
+            int start = cursor;
+            while (start > 0 && Character.isJavaIdentifierPart(text.charAt(start - 1))) {
+                start--;
+            }
+            List<Suggestion> completions = List.of();
+            if (previous != null && previous.documentation.isEmpty() && previous.replaceStart == start
+                    && cursor <= text.length()) {
+                var prefix = text.substring(start, cursor);
+                completions = new ArrayList<>();
+                for (var s : previous.completions) {
+                    if (s.continuation().startsWith(prefix)) {
+                        completions.add(s);
+                    }
+                }
             }
-            return new CompInfo(analyzer, text, comp.getCaretPosition());
+            return new CompInfo(text, cursor, version, start, completions);
         }
 
-        CompInfo(SourceCodeAnalysis analyzer, String text, int cursor) {
+        private CompInfo(String text, int cursor, int version, int replaceStart, List<Suggestion> completions) {
+            this.version = version;
             this.text = text;
             this.cursor = cursor;
-            int at = cursor;
+            this.replaceStart = replaceStart;
+            this.completions = completions;
+            this.documentation = List.of();
+            this.signatures = List.of();
+            this.snippet = EMPTY_STRING;
+            this.snippetCursor = 0;
+            this.prefix = text.substring(replaceStart, cursor);
+            this.provisional = true;
+        }
+
+        /**
+         * Analyzes the {@code [windowStart, windowEnd)} part of {@code text},
+         * the snippet around the cursor, with offsets mapped back to the text.
+         */
+        CompInfo(SourceCodeAnalysis analyzer, String text, int windowStart, int windowEnd, int cursor,
+                int version) {
+            this.provisional = false;
+            this.version = version;
+            this.text = text;
+            this.cursor = cursor;
+            var snippet = text.substring(windowStart, windowEnd);
+            int at = cursor - windowStart;
+            this.snippet = snippet;
+            this.snippetCursor = at;
             // while (at + 1 < text.length() &&
             // Character.isJavaIdentifierPart(text.charAt(at + 1)))
             // at++;
 
             int[] rep = new int[1];
-            this.completions = analyzer.completionSuggestions(text, at, rep);
-            this.replaceStart = rep[0];
-            this.documentation = analyzer.documentation(text, at, false);
+            this.completions = analyzer.completionSuggestions(snippet, at, rep);
+            this.replaceStart = rep[0] + windowStart;
+            this.documentation = analyzer.documentation(snippet, at, false);
             if (documentation.isEmpty()) {
                 signatures = List.of();
             } else {
@@ -139,7 +615,7 @@ class ConchCompletionProvider extends CompletionProviderBase {
                 }
             }
 
-            var match = text.substring(replaceStart, at);
+            var match = text.substring(replaceStart, cursor);
             if (match.isEmpty() && !signatures.isEmpty()) {
                 // override for method doc completions
                 match = signatures.get(0).name + '(';
@@ -149,39 +625,216 @@ class ConchCompletionProvider extends CompletionProviderBase {
 
     }
 
+    /**
+     * A method or constructor signature as reported by
+     * {@link Documentation#signature()}, e.g.
+     * {@code java.util.Map<K,V> java.util.Map<K, V>.<K, V>of(K k1, V v1)} or
+     * {@code java.util.ArrayList<E>(int initialCapacity)}. Parsed with a single
+     * scan of the string, type arguments of the declaring type and the method
+     * are dropped from {@link #fqn}, parameter types keep theirs along with
+     * array brackets and varargs. Overloads are documented on every completion
+     * request, so parsed signatures are kept in a small LRU cache.
+     */
     static class Signature {
-        final String[] tokens;
+        private static final int CACHE_SIZE = 256;
+        private static final Map<String, Signature> CACHE = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Signature> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+        /** As reported by the analyzer */
+        final String signature;
         final String fqn;
         final String name;
         final String returnType;
         final int arity;
         final String[] paramNames;
         final String[] paramTypes;
+        private List<Parameter> params;
+
+        private Signature(String signature, String returnType, String fqn, String[] paramTypes,
+                String[] paramNames) {
+            this.signature = signature;
+            this.returnType = returnType;
+            this.fqn = fqn;
+            this.name = fqn.substring(fqn.lastIndexOf('.') + 1);
+            this.arity = paramTypes.length;
+            this.paramTypes = paramTypes;
+            this.paramNames = paramNames;
+        }
 
-        private Signature(String sig) {
-            this.tokens = sig.substring(0, sig.lastIndexOf(')')).split("[ \\(\\),]+");
-            int base = tokens.length % 2 == 0 ? 2 : 1; // 1 for constructor, 2 for method
-            this.returnType = base == 1 ? "" : tokens[0];
-            this.fqn = tokens[base - 1];
-            var fqnTokens = fqn.split("\\.");
-            this.name = fqnTokens[fqnTokens.length - 1];
-            this.arity = (tokens.length - base) / 2;
-            this.paramNames = new String[arity];
-            this.paramTypes = new String[arity];
-            for (int i = 0; i < arity; i++) {
-                int offs = base + (i * 2);
-                paramTypes[i] = tokens[offs];
-                paramNames[i] = tokens[offs + 1];
+        /**
+         * The parameters for a {@link FunctionCompletion}, shared by all
+         * completions created for this signature.
+         */
+        synchronized List<Parameter> parameters() {
+            if (params == null) {
+                var list = new ArrayList<Parameter>(arity);
+                for (int i = 0; i < arity; i++) {
+                    list.add(new Parameter(paramTypes[i], paramNames[i], i + 1 == arity));
+                }
+                params = List.copyOf(list);
             }
+            return params;
         }
 
         public static Signature tryParse(String sig) {
-            if (!sig.contains("(")) {
+            synchronized (CACHE) {
+                var cached = CACHE.get(sig);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            var parsed = parse(sig);
+            if (parsed != null) {
+                synchronized (CACHE) {
+                    CACHE.put(sig, parsed);
+                }
+            }
+            return parsed;
+        }
+
+        private static Signature parse(String sig) {
+            int len = sig.length();
+            // the parameter list opens at the first '(' outside type arguments,
+            // the last space before it at that level ends the return type
+            int open = -1;
+            int space = -1;
+            int angle = 0;
+            for (int i = 0; i < len && open < 0; i++) {
+                char c = sig.charAt(i);
+                if (c == '<') {
+                    angle++;
+                } else if (c == '>') {
+                    angle--;
+                } else if (angle == 0) {
+                    if (c == '(') {
+                        open = i;
+                    } else if (c == ' ') {
+                        space = i;
+                    }
+                }
+            }
+            if (open < 0) {
                 return null;
             }
-            return new Signature(sig);
+            var returnType = space < 0 ? "" : sig.substring(0, space);
+            var fqn = stripTypeArguments(sig, space + 1, open);
+            if (fqn.isEmpty()) {
+                return null;
+            }
+
+            int close = -1;
+            boolean blank = true;
+            int depth = 0;
+            for (int i = open + 1; i < len && close < 0; i++) {
+                char c = sig.charAt(i);
+                if (c == '<' || c == '(') {
+                    depth++;
+                } else if (c == ')' && depth == 0) {
+                    close = i;
+                } else if (c == '>' || c == ')') {
+                    depth--;
+                }
+                blank &= close >= 0 || c == ' ';
+            }
+            if (close < 0) {
+                return null;
+            }
+            int arity = blank ? 0 : 1 + count(sig, open + 1, close);
+
+            var types = new String[arity];
+            var names = new String[arity];
+            int from = open + 1;
+            for (int p = 0; p < arity; p++) {
+                int end = p + 1 == arity ? close : nextComma(sig, from, close);
+                while (from < end && sig.charAt(from) == ' ') {
+                    from++;
+                }
+                int split = lastTopLevelSpace(sig, from, end);
+                if (split < 0) {
+                    types[p] = sig.substring(from, end);
+                    names[p] = "arg" + p;
+                } else {
+                    types[p] = sig.substring(from, split);
+                    names[p] = sig.substring(split + 1, end);
+                }
+                from = end + 1;
+            }
+            return new Signature(sig, returnType, fqn, types, names);
+        }
+
+        /** Number of parameter separating commas in {@code [from, to)}. */
+        private static int count(String sig, int from, int to) {
+            int commas = 0;
+            int depth = 0;
+            for (int i = from; i < to; i++) {
+                char c = sig.charAt(i);
+                if (c == '<' || c == '(') {
+                    depth++;
+                } else if (c == '>' || c == ')') {
+                    depth--;
+                } else if (c == ',' && depth == 0) {
+                    commas++;
+                }
+            }
+            return commas;
+        }
+
+        private static int nextComma(String sig, int from, int to) {
+            int depth = 0;
+            for (int i = from; i < to; i++) {
+                char c = sig.charAt(i);
+                if (c == '<' || c == '(') {
+                    depth++;
+                } else if (c == '>' || c == ')') {
+                    depth--;
+                } else if (c == ',' && depth == 0) {
+                    return i;
+                }
+            }
+            return to;
+        }
+
+        private static int lastTopLevelSpace(String sig, int from, int to) {
+            int depth = 0;
+            for (int i = to - 1; i >= from; i--) {
+                char c = sig.charAt(i);
+                if (c == '>' || c == ')') {
+                    depth++;
+                } else if (c == '<' || c == '(') {
+                    depth--;
+                } else if (c == ' ' && depth == 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /** {@code java.util.Map<K, V>.<K, V>of} to {@code java.util.Map.of} */
+        private static String stripTypeArguments(String sig, int from, int to) {
+            if (sig.indexOf('<', from) < 0 || sig.indexOf('<', from) >= to) {
+                return sig.substring(from, to);
+            }
+            var sb = new StringBuilder(to - from);
+            int angle = 0;
+            for (int i = from; i < to; i++) {
+                char c = sig.charAt(i);
+                if (c == '<') {
+                    angle++;
+                } else if (c == '>') {
+                    angle--;
+                } else if (angle == 0) {
+                    sb.append(c);
+                }
+            }
+            return sb.toString();
         }
 
     }
 
-}
\ No newline at end of file
+}
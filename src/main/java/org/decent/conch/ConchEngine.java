@@ -0,0 +1,377 @@
+package org.decent.conch;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import jdk.jshell.DeclarationSnippet;
+import jdk.jshell.EvalException;
+import jdk.jshell.JShell;
+import jdk.jshell.JShellException;
+import jdk.jshell.Snippet.Kind;
+import jdk.jshell.Snippet.Status;
+import jdk.jshell.SnippetEvent;
+
+/**
+ * Evaluates scripts in a {@link JShell}, snippet by snippet, and reports what
+ * happens to a {@link Listener} as it happens. This is everything Conch does
+ * short of the UI: {@link ConchPanel} is one listener, a script runner or a
+ * test is another. Scripts are given as a string or read from a
+ * {@link Reader}, which is consumed one snippet at a time, so files of any
+ * size are evaluated in constant memory.
+ * <p>
+ * Snippet output goes wherever the shell sends it. Metrics and profiles need
+ * the {@link ConchExecutionControl} engine, see {@link #builder()}.
+ * <p>
+ * Not thread safe: evaluate from one thread at a time, {@link #stop()} may be
+ * called from any thread.
+ */
+public class ConchEngine {
+
+    /**
+     * Receives the events of an evaluation, on the evaluating thread. Notice
+     * positions are relative to the start of the script.
+     */
+    public interface Listener {
+
+        /**
+         * A snippet at {@code [start, end)} of the script is about to be
+         * evaluated.
+         */
+        default void evaluating(int start, int end, String source) {
+        }
+
+        /**
+         * A snippet produced a value, {@code name} is the declared variable or
+         * {@code null} for an expression.
+         */
+        default void value(String name, String value) {
+        }
+
+        /**
+         * The object behind the value just reported, for snippets run
+         * in-process by {@link ConchExecutionControl}.
+         */
+        default void inspect(String name, Object value) {
+        }
+
+        /**
+         * An error, like a rejected or incomplete snippet, or a snippet that
+         * threw.
+         */
+        default void notice(Notice notice) {
+        }
+
+        /** The cost of the snippet just evaluated */
+        default void metrics(EvalMetrics metrics) {
+        }
+
+        /** An incremental evaluation skipped {@code count} unchanged snippets. */
+        default void skipped(int count) {
+        }
+
+    }
+
+    private static final int READ_CHUNK = 8192;
+    private static final long PROFILER_INTERVAL_MILLIS = 10;
+    private static final int MAX_TRACE_FRAMES = 20;
+    private static final int MAX_CAUSES = 10;
+
+    private volatile JShell shell;
+    private final IncrementalRun history = new IncrementalRun();
+    private SessionJournal journal;
+    private volatile long profilerThresholdMillis = 1000;
+    /** Incremented by {@link #stop()}, ends the evaluations begun before */
+    private final AtomicInteger stops = new AtomicInteger();
+    private BiConsumer<String, StackProfile> profiles = (source, profile) -> {
+    };
+
+    public ConchEngine(JShell shell) {
+        this.shell = shell;
+    }
+
+    /**
+     * A builder for shells running snippets with {@link ConchExecutionControl},
+     * in-process with metrics and profiling.
+     */
+    public static JShell.Builder builder() {
+        var provider = new ConchExecutionControlProvider();
+        return JShell.builder().executionEngine(provider, provider.defaultParameters());
+    }
+
+    /**
+     * A builder for shells running snippets out of process, in agent JVMs
+     * started ahead of use by {@link ConchAgentProvider}. Snippets can't
+     * exhaust or crash the host JVM, but are not measured or profiled, and
+     * their results can't be inspected.
+     */
+    public static JShell.Builder agentBuilder() {
+        var provider = new ConchAgentProvider();
+        return JShell.builder().executionEngine(provider, provider.defaultParameters());
+    }
+
+    public JShell shell() {
+        return shell;
+    }
+
+    /**
+     * Continues in {@code shell}, e.g. to reset the session. Returns the
+     * previous shell, which is not closed. The journal, if any, starts over.
+     */
+    public JShell setShell(JShell shell) {
+        var previous = this.shell;
+        this.shell = shell;
+        history.clear();
+        if (journal != null) {
+            journal.clear();
+            journal.flush();
+        }
+        return previous;
+    }
+
+    /**
+     * Records the declarations evaluated from now on in {@code journal}, which
+     * is written after every evaluation.
+     */
+    void setJournal(SessionJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets how long a snippet has to run before its thread is sampled. A
+     * negative value turns profiling off. Defaults to one second.
+     */
+    public void setProfilerThreshold(long millis) {
+        this.profilerThresholdMillis = millis;
+    }
+
+    /** Receives the profiles of the snippets that were sampled. */
+    void onProfile(BiConsumer<String, StackProfile> consumer) {
+        this.profiles = consumer;
+    }
+
+    /**
+     * Stops the snippet currently executing, and the evaluation it is part
+     * of: its remaining snippets are not evaluated.
+     */
+    public void stop() {
+        stops.incrementAndGet();
+        shell.stop();
+    }
+
+    /**
+     * Evaluates {@code script}. Returns {@code false} if evaluation stopped
+     * early at a rejected or incomplete snippet, or by {@link #stop()}.
+     */
+    public boolean evaluate(String script, Listener listener) {
+        return evaluate(script, null, null, listener);
+    }
+
+    /**
+     * Evaluates the snippets of {@code script} that changed since the previous
+     * incremental evaluation, see {@link IncrementalRun}.
+     */
+    public boolean evaluateIncrementally(String script, Listener listener) {
+        history.begin();
+        try {
+            return evaluate(script, null, history, listener);
+        } finally {
+            int skipped = history.end();
+            if (skipped > 0) {
+                listener.skipped(skipped);
+            }
+        }
+    }
+
+    /**
+     * Evaluates the script read from {@code in}, each snippet as soon as it
+     * has been read completely. Does not close {@code in}.
+     *
+     * @throws UncheckedIOException if reading fails
+     */
+    public boolean evaluate(Reader in, Listener listener) {
+        return evaluate("", in, null, listener);
+    }
+
+    /**
+     * Evaluates {@code text} and what can be read from {@code in}, if not
+     * null. Only the text from the current snippet on is kept: a snippet is
+     * evaluated once a whole token follows it, so the splitter could tell
+     * that it does not continue, or at the end of the input.
+     */
+    private boolean evaluate(String text, Reader in, IncrementalRun history, Listener listener) {
+        try {
+            return evaluateSnippets(text, in, history, listener, stops.get());
+        } finally {
+            if (journal != null) {
+                journal.flush();
+            }
+        }
+    }
+
+    private boolean evaluateSnippets(String text, Reader in, IncrementalRun history, Listener listener,
+            int generation) {
+        var analyzer = shell.sourceCodeAnalysis();
+        var chunk = in == null ? null : new char[READ_CHUNK];
+        boolean eof = in == null;
+        int base = 0;
+        int pos = 0;
+        while (true) {
+            var range = SnippetSplitter.next(analyzer, text, pos);
+            boolean settled = range != null && range.isComplete() && SnippetSplitter.isFollowed(text, range.end);
+            if (!eof && !settled) {
+                int n;
+                try {
+                    n = in.read(chunk);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    base += pos;
+                    text = text.substring(pos) + new String(chunk, 0, n);
+                    pos = 0;
+                }
+                continue;
+            }
+            if (generation != stops.get()) {
+                return false;
+            }
+            if (range == null) {
+                return true;
+            }
+            int start = base + range.start;
+            int end = base + range.end;
+            pos = range.end;
+            if (!range.isComplete()) {
+                listener.notice(Notice.error(start, end, "Incomplete input"));
+                return false;
+            }
+            if (!evaluate(range.source, start, end, history, listener)) {
+                return false;
+            }
+        }
+    }
+
+    private boolean evaluate(String snippet, int start, int end, IncrementalRun history, Listener listener) {
+        if (history != null && history.skip(shell, snippet)) {
+            return true;
+        }
+        listener.evaluating(start, end, snippet);
+
+        var recorder = new EvalMetrics.Recorder();
+        long threshold = profilerThresholdMillis;
+        var profiler = threshold < 0 ? null : new SamplingProfiler(threshold, PROFILER_INTERVAL_MILLIS);
+        var result = new ResultCapture();
+        var observer = recorder.and(result);
+        ConchExecutionControl.observe(profiler == null ? observer : observer.and(profiler));
+        List<SnippetEvent> snippetEvents;
+        try {
+            snippetEvents = shell.eval(snippet);
+        } finally {
+            ConchExecutionControl.observe(null);
+        }
+        var metrics = recorder.finish(snippet);
+        if (profiler != null && profiler.profile().samples() > 0) {
+            profiles.accept(snippet, profiler.profile());
+        }
+        if (history != null) {
+            history.evaluated(shell, snippet, snippetEvents);
+        }
+        if (journal != null) {
+            journal.evaluated(snippetEvents);
+        }
+
+        for (var e : snippetEvents) {
+            if (e.status() == Status.REJECTED) {
+                shell.diagnostics(e.snippet())
+                        .forEach(diag -> listener.notice(Notice.wrap(start, new DiagNotice(diag))));
+                listener.metrics(metrics);
+                return false;
+            }
+            if (e.value() != null) {
+                var name = e.snippet() instanceof DeclarationSnippet ? ((DeclarationSnippet) e.snippet()).name()
+                        : null;
+                listener.value(name, e.value());
+                if (result.captured && e.causeSnippet() == null && e.snippet().kind() != Kind.STATEMENT) {
+                    listener.inspect(name, result.value);
+                }
+            }
+            if (e.exception() != null) {
+                listener.notice(Notice.error(start, end, trace(e.exception())));
+            }
+        }
+        listener.metrics(metrics);
+        return true;
+    }
+
+    /** Keeps the last value the execution engine produced */
+    private static final class ResultCapture implements ConchExecutionControl.SnippetObserver {
+        boolean captured;
+        Object value;
+
+        @Override
+        public void started(Thread thread) {
+        }
+
+        @Override
+        public void finished(Thread thread) {
+        }
+
+        @Override
+        public void result(Object value) {
+            this.captured = true;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The exception a snippet threw, with its causes, like
+     * {@link Throwable#printStackTrace()} prints it. Frames in snippets are
+     * shown as JShell reports them, with the snippet id as file name, e.g.
+     * {@code at f (#1:1)}. At most {@value #MAX_TRACE_FRAMES} frames are shown
+     * per exception.
+     */
+    private static String trace(JShellException exc) {
+        var sb = new StringBuilder();
+        Throwable t = exc;
+        for (int depth = 0; t != null && depth < MAX_CAUSES; depth++) {
+            if (depth > 0) {
+                sb.append("\nCaused by: ");
+            }
+            if (t instanceof EvalException) {
+                sb.append(((EvalException) t).getExceptionClassName()).append(": ");
+            }
+            sb.append(t.getMessage());
+            if (!(t instanceof EvalException)) {
+                // thrown by JShell itself, its frames are not the snippet's
+                break;
+            }
+            var frames = t.getStackTrace();
+            for (int i = 0; i < frames.length; i++) {
+                if (i == MAX_TRACE_FRAMES) {
+                    sb.append("\n\t... ").append(frames.length - i).append(" more");
+                    break;
+                }
+                var frame = frames[i];
+                sb.append("\n\tat ");
+                if (frame.getClassName().isEmpty()) {
+                    // a snippet
+                    if (!frame.getMethodName().isEmpty()) {
+                        sb.append(frame.getMethodName()).append(' ');
+                    }
+                    sb.append('(').append(frame.getFileName()).append(':').append(frame.getLineNumber()).append(')');
+                } else {
+                    sb.append(frame);
+                }
+            }
+            t = t.getCause();
+        }
+        return sb.toString();
+    }
+
+}
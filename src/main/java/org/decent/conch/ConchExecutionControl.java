@@ -0,0 +1,232 @@
+package org.decent.conch;
+
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jdk.jshell.execution.DirectExecutionControl;
+import jdk.jshell.execution.LocalExecutionControl;
+
+/**
+ * In-process execution engine. Like {@link LocalExecutionControl}, it runs
+ * every snippet in a new thread. The threads of all snippets share one thread
+ * group, which outlives them, so that thread pools a snippet creates keep
+ * working in later snippets; {@link #stop()} stops the threads started since
+ * the current snippet began. In addition, it reports the snippet thread to the
+ * {@link SnippetObserver} that the thread calling {@code JShell.eval} has
+ * {@link #observe(SnippetObserver) registered}, which is how Conch measures
+ * and samples snippets without any support from the snippets themselves.
+ * <p>
+ * Values are rendered by {@link ValuePreview}, bounded in length and time,
+ * and the objects themselves are passed to the observer for inspection.
+ */
+public class ConchExecutionControl extends DirectExecutionControl {
+
+    /**
+     * Receives the thread a snippet runs in. The methods are called on that
+     * thread, right before and right after the snippet code.
+     */
+    public interface SnippetObserver {
+
+        void started(Thread thread);
+
+        void finished(Thread thread);
+
+        /**
+         * Receives the value of an expression or variable, on the thread
+         * calling {@code JShell.eval}.
+         */
+        default void result(Object value) {
+        }
+
+        /**
+         * Returns an observer that notifies this observer and then
+         * {@code other}.
+         */
+        default SnippetObserver and(SnippetObserver other) {
+            var self = this;
+            return new SnippetObserver() {
+
+                @Override
+                public void started(Thread thread) {
+                    self.started(thread);
+                    other.started(thread);
+                }
+
+                @Override
+                public void finished(Thread thread) {
+                    self.finished(thread);
+                    other.finished(thread);
+                }
+
+                @Override
+                public void result(Object value) {
+                    self.result(value);
+                    other.result(value);
+                }
+
+            };
+        }
+
+    }
+
+    private static final ThreadLocal<SnippetObserver> OBSERVER = new ThreadLocal<>();
+
+    private final Object stopLock = new Object();
+    private boolean userCodeRunning;
+    private final ThreadGroup execThreadGroup = new ThreadGroup("JShell process local execution");
+    /** The threads of the group before the current snippet started, guarded by stopLock */
+    private Set<Thread> preexisting = Set.of();
+
+    /**
+     * Registers {@code observer} for the snippets evaluated by the current
+     * thread, {@code null} to unregister.
+     */
+    public static void observe(SnippetObserver observer) {
+        if (observer == null) {
+            OBSERVER.remove();
+        } else {
+            OBSERVER.set(observer);
+        }
+    }
+
+    @Override
+    protected String invoke(Method doitMethod) throws Exception {
+        var observer = OBSERVER.get();
+        var redirect = SystemStreams.redirectOfCurrentThread();
+        var group = execThreadGroup;
+        var before = threadsOf(group);
+        synchronized (stopLock) {
+            preexisting = before;
+        }
+
+        var iteEx = new AtomicReference<InvocationTargetException>();
+        var iaeEx = new AtomicReference<IllegalAccessException>();
+        var stopped = new AtomicBoolean();
+        var res = new Object[1];
+        var snippetThread = new Thread(group, () -> {
+            var self = Thread.currentThread();
+            SystemStreams.redirectCurrentThread(redirect);
+            if (observer != null) {
+                observer.started(self);
+            }
+            try {
+                res[0] = doitMethod.invoke(null, new Object[0]);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof ThreadDeath) {
+                    stopped.set(true);
+                } else {
+                    iteEx.set(e);
+                }
+            } catch (IllegalAccessException e) {
+                iaeEx.set(e);
+            } catch (ThreadDeath e) {
+                stopped.set(true);
+            } finally {
+                if (observer != null) {
+                    observer.finished(self);
+                }
+                SystemStreams.redirectCurrentThread((OutputStream[]) null);
+            }
+        }, "conch-snippet");
+
+        snippetThread.start();
+        // also wait for the threads the snippet started, but not for daemons
+        for (var thread : threadsOf(group)) {
+            if (!before.contains(thread) && !thread.isDaemon()) {
+                thread.join();
+            }
+        }
+
+        if (stopped.get()) {
+            throw new StoppedException();
+        }
+        if (iteEx.get() != null) {
+            throw iteEx.get();
+        } else if (iaeEx.get() != null) {
+            throw iaeEx.get();
+        }
+        return result(observer, res[0]);
+    }
+
+    @Override
+    public String varValue(String className, String varName)
+            throws RunException, EngineTerminationException, InternalException {
+        Object value;
+        try {
+            var field = findClass(className).getDeclaredField(varName);
+            field.setAccessible(true);
+            value = field.get(null);
+        } catch (Throwable e) {
+            throw new InternalException(e.toString());
+        }
+        try {
+            clientCodeEnter();
+            return result(OBSERVER.get(), value);
+        } catch (Throwable e) {
+            return throwConvertedInvocationException(e);
+        } finally {
+            clientCodeLeave();
+        }
+    }
+
+    private static String result(SnippetObserver observer, Object value) {
+        if (observer != null) {
+            observer.result(value);
+        }
+        return ValuePreview.of(value);
+    }
+
+    private static Set<Thread> threadsOf(ThreadGroup group) {
+        // room for threads started meanwhile
+        var threads = new Thread[group.activeCount() + 16];
+        int n = group.enumerate(threads);
+        return new HashSet<>(Arrays.asList(threads).subList(0, n));
+    }
+
+    /** JShell's rendering of {@code value}, unbounded */
+    static String render(Object value) {
+        return valueString(value);
+    }
+
+    @Override
+    @SuppressWarnings({ "deprecation", "removal" })
+    public void stop() throws EngineTerminationException, InternalException {
+        synchronized (stopLock) {
+            if (!userCodeRunning) {
+                return;
+            }
+            for (var thread : threadsOf(execThreadGroup)) {
+                if (preexisting.contains(thread)) {
+                    continue;
+                }
+                try {
+                    thread.stop();
+                } catch (UnsupportedOperationException e) {
+                    // Thread.stop is gone in recent JDKs, interrupting is all we can do
+                    thread.interrupt();
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void clientCodeEnter() {
+        synchronized (stopLock) {
+            userCodeRunning = true;
+        }
+    }
+
+    @Override
+    protected void clientCodeLeave() {
+        synchronized (stopLock) {
+            userCodeRunning = false;
+        }
+    }
+
+}
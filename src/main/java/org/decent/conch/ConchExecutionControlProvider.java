@@ -0,0 +1,25 @@
+package org.decent.conch;
+
+import java.util.Map;
+
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControlProvider;
+import jdk.jshell.spi.ExecutionEnv;
+
+/**
+ * Provides the {@link ConchExecutionControl} in-process execution engine,
+ * registered as {@code "conch"}.
+ */
+public class ConchExecutionControlProvider implements ExecutionControlProvider {
+
+    @Override
+    public String name() {
+        return "conch";
+    }
+
+    @Override
+    public ExecutionControl generate(ExecutionEnv env, Map<String, String> parameters) {
+        return new ConchExecutionControl();
+    }
+
+}
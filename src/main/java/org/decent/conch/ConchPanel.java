@@ -6,55 +6,146 @@ import java.awt.Dimension;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
-import java.awt.event.MouseAdapter;
-import java.awt.event.MouseEvent;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
-import javax.swing.JTextPane;
+import javax.swing.JTabbedPane;
 import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 
 import org.fife.ui.autocomplete.AutoCompletion;
+import org.fife.ui.autocomplete.Completion;
 import org.fife.ui.rsyntaxtextarea.ErrorStrip;
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
 import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
 import org.fife.ui.rtextarea.RTextScrollPane;
 
-import jdk.jshell.DeclarationSnippet;
-import jdk.jshell.EvalException;
 import jdk.jshell.JShell;
-import jdk.jshell.JShellException;
-import jdk.jshell.Snippet.Status;
-import jdk.jshell.execution.LocalExecutionControlProvider;
 
 public class ConchPanel extends JPanel {
 
     static final SimpleAttributeSet errorStyle = new SimpleAttributeSet();
+    static final SimpleAttributeSet stderrStyle = new SimpleAttributeSet();
+    static final SimpleAttributeSet metricsStyle = new SimpleAttributeSet();
     static {
         StyleConstants.setForeground(errorStyle, Color.red);
         StyleConstants.setBold(errorStyle, true);
+        StyleConstants.setForeground(stderrStyle, Color.red);
+        StyleConstants.setForeground(metricsStyle, Color.gray);
     }
 
-    private final JShell shell;
+    private static final String BENCH_COMMAND = "/bench";
+    private static final int CAPTURE_CAPACITY = 2000;
+    private static final int CAPTURE_CHUNKS_PER_FRAME = 500;
+
+    private final ConchEngine engine;
+    /** Builds the shell of a new session, null if the panel got its shell */
+    private final Supplier<JShell> shellFactory;
+    private boolean warmUp;
+    private CompletableFuture<JShell> standby;
 
     private final RSyntaxTextArea editor;
-    private final JTextPane output;
+    private final OutputConsole output;
     private final NoticeParser parser;
+    private final SnippetChecker checker;
+    private final NotebookCells cells;
+    private final ConchCompletionProvider completions;
+    private final ProfilePanel profilePanel = new ProfilePanel();
+    private final InspectorPanel inspector = new InspectorPanel();
+    private final JobsPanel jobs;
+    private final JTabbedPane tabs = new JTabbedPane(JTabbedPane.BOTTOM);
+    private final JLabel status;
+    private final Action stopAction;
+
+    private final Timer capturePump = new Timer(16, e -> pumpCapturedOutput());
+    private final CaptureStream stdout = new CaptureStream(Charset.defaultCharset(), CAPTURE_CAPACITY,
+            this::capturedOutput);
+    private final CaptureStream stderr = new CaptureStream(Charset.defaultCharset(), CAPTURE_CAPACITY,
+            this::capturedOutput);
+
+    /**
+     * Evaluates one job at a time, in submission order, so that the EDT never
+     * waits on {@link JShell#eval(String)}.
+     */
+    private final ExecutorService evaluator = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(() -> {
+            // snippet threads started by the local execution engine inherit this
+            SystemStreams.redirectCurrentThread(stdout, stderr);
+            r.run();
+        }, "conch-eval");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+    private final AtomicInteger stopGeneration = new AtomicInteger();
+    private final JCheckBox incrementalRun = new JCheckBox("Incremental");
+    private final JCheckBox showMetrics = new JCheckBox("Metrics");
+    private volatile boolean metricsShown;
+    private final List<Consumer<EvalMetrics>> metricsListeners = new CopyOnWriteArrayList<>();
+    /** Added to the shell of every session */
+    private final List<String> addedClasspath = new CopyOnWriteArrayList<>();
+    /** The declarations of the session as of the last run, forked by jobs, EDT confined */
+    private SessionJournal declared;
 
+    /**
+     * Creates a panel for {@code shell}. Snippet output only reaches the panel
+     * if the shell runs snippets in-process, use
+     * {@link #ConchPanel(JShell.Builder)} to capture it for other execution
+     * engines too.
+     */
     public ConchPanel(JShell shell) {
+        this(shell, null);
+    }
+
+    /**
+     * Creates a panel for a shell built by {@code builder}, with its output
+     * and error streams captured into the panel's output.
+     */
+    public ConchPanel(JShell.Builder builder) {
+        this(null, builder);
+    }
 
-        this.shell = shell;
+    private ConchPanel(JShell shell, JShell.Builder builder) {
+
+        if (shell == null) {
+            builder.out(new PrintStream(stdout, true)).err(new PrintStream(stderr, true));
+            shellFactory = builder::build;
+            shell = builder.build();
+        } else {
+            shellFactory = null;
+        }
+        this.engine = new ConchEngine(shell);
+        declared = SessionJournal.snapshot(shell);
+        engine.onProfile((source, profile) -> {
+            append(profile.samples() + " stack samples taken, see the Profile tab\n", metricsStyle);
+            SwingUtilities.invokeLater(() -> profilePanel.show(source, profile));
+        });
         setLayout(new BorderLayout());
+        capturePump.setRepeats(false);
 
         editor = new RSyntaxTextArea(20, 60);
         editor.setSyntaxEditingStyle(SyntaxConstants.SYNTAX_STYLE_JAVA);
@@ -64,6 +155,10 @@ public class ConchPanel extends JPanel {
         var scrollPane = new RTextScrollPane(editor);
         this.parser = new NoticeParser(editor);
         editor.addParser(parser);
+        checker = new SnippetChecker(editor, parser, engine::shell);
+        cells = new NotebookCells(editor);
+        cells.watch(shell);
+        editor.addParser(checker);
         var errorStrip = new ErrorStrip(editor);
 
         JPanel panel = new JPanel(new BorderLayout());
@@ -73,33 +168,73 @@ public class ConchPanel extends JPanel {
         var split = new JSplitPane(JSplitPane.VERTICAL_SPLIT);
         split.setTopComponent(panel);
 
-        output = new JTextPane();
-        output.setEditable(false);
+        output = new OutputConsole();
         output.setPreferredSize(new Dimension(400, 150));
-        output.setBackground(Color.white);
-        output.addMouseListener(new MouseAdapter() {
-            @Override
-            public void mouseClicked(MouseEvent e) {
-                var el = output.getStyledDocument().getCharacterElement(output.viewToModel2D(e.getPoint()));
-                var pos = (Integer) el.getAttributes().getAttribute("pos");
-                if (pos != null) {
-                    editor.setCaretPosition(pos);
-                    editor.grabFocus();
-                }
-            }
+        output.onLinkClicked(pos -> {
+            editor.setCaretPosition(pos);
+            editor.grabFocus();
         });
-        split.setBottomComponent(new JScrollPane(output));
+        tabs.addTab("Output", new JScrollPane(output));
+        tabs.addTab("Profile", profilePanel);
+        tabs.addTab("Inspector", inspector);
+        jobs = new JobsPanel(stdout, stderr);
+        tabs.addTab("Jobs", jobs);
+        split.setBottomComponent(tabs);
         add(split);
 
-        var provider = new ConchCompletionProvider(this.shell);
+        stopAction = new AbstractAction("Stop") {
+            @Override
+            public void actionPerformed(ActionEvent ae) {
+                stop();
+            }
+        };
+        stopAction.setEnabled(false);
+        status = new JLabel("Ready");
+        var statusBar = new JPanel(new BorderLayout());
+        statusBar.add(status);
+        incrementalRun.setToolTipText("Skip unchanged snippets when running the whole buffer");
+        showMetrics.setToolTipText("Show the time, allocation and GC cost of every snippet");
+        showMetrics.addItemListener(e -> metricsShown = showMetrics.isSelected());
+        var resetAction = new AbstractAction("Reset") {
+            @Override
+            public void actionPerformed(ActionEvent ae) {
+                resetSession();
+            }
+        };
+        resetAction.setEnabled(shellFactory != null);
+        var resetButton = new JButton(resetAction);
+        resetButton.setToolTipText("Discard all snippets and start a new session");
+        var buttons = new JPanel();
+        buttons.add(resetButton);
+        buttons.add(showMetrics);
+        buttons.add(incrementalRun);
+        buttons.add(new JButton(stopAction));
+        statusBar.add(buttons, BorderLayout.LINE_END);
+        add(statusBar, BorderLayout.PAGE_END);
+
+        var provider = new ConchCompletionProvider(shell);
+        completions = provider;
         provider.setParent(new JavaCompletionProvider());
-        var ac = new AutoCompletion(provider);
+        provider.setTypeIndex(TypeIndex.shared());
+        var ac = new AutoCompletion(provider) {
+            @Override
+            protected void insertCompletion(Completion c, boolean typedParamListStartChar) {
+                super.insertCompletion(c, typedParamListStartChar);
+                provider.completionInserted(getTextComponent(), c);
+            }
+        };
         ac.setAutoCompleteEnabled(true);
         ac.setParameterAssistanceEnabled(true);
         ac.setShowDescWindow(true);
         ac.setChoicesWindowSize(250, 200);
         ac.setDescriptionWindowSize(500, 250);
         ac.install(editor);
+        provider.onCompletionsReady(() -> ac.doCompletion());
+        provider.onJavadocReady(() -> {
+            if (ac.isPopupVisible()) {
+                ac.doCompletion();
+            }
+        });
 
         int meta = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
         var cmdEnter = KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, meta);
@@ -109,108 +244,483 @@ public class ConchPanel extends JPanel {
             public void actionPerformed(ActionEvent ae) {
                 var code = editor.getSelectedText();
                 int startPos;
+                boolean incremental = false;
                 if (code == null) {
                     startPos = 0;
                     code = editor.getText();
+                    incremental = incrementalRun.isSelected();
                 } else {
                     startPos = editor.getSelectionStart();
                 }
                 // output.setText("");
                 append("\n", null);
                 parser.clear();
-                run(code, msg -> append(msg + "\n", null), notice -> {
-                    var n = Notice.wrap(startPos, notice);
-                    append(notice);
-                    parser.add(n);
-                });
-                editor.forceReparsing(parser);
+                submit(code, startPos, incremental);
+            }
+        });
+        var shiftEnter = KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, KeyEvent.SHIFT_DOWN_MASK);
+        editor.getInputMap(JComponent.WHEN_FOCUSED).put(shiftEnter, "runCell");
+        editor.getActionMap().put("runCell", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent ae) {
+                int[] cell = cells.cellAt(editor.getCaretPosition());
+                var code = editor.getText().substring(cell[0], cell[1]);
+                append("\n", null);
+                parser.removeRange(cell[0], cell[1]);
+                submitCell(code, cell[0]);
+            }
+        });
+        var cmdAltEnter = KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, meta | KeyEvent.ALT_DOWN_MASK);
+        editor.getInputMap(JComponent.WHEN_FOCUSED).put(cmdAltEnter, "runJob");
+        editor.getActionMap().put("runJob", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent ae) {
+                var code = editor.getSelectedText();
+                if (code == null) {
+                    int[] cell = cells.cellAt(editor.getCaretPosition());
+                    code = editor.getText().substring(cell[0], cell[1]);
+                }
+                if (!code.isBlank()) {
+                    submitJob(code);
+                }
             }
         });
+        var cmdShiftEnter = KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, meta | KeyEvent.SHIFT_DOWN_MASK);
+        editor.getInputMap(JComponent.WHEN_FOCUSED).put(cmdShiftEnter, "bench");
+        editor.getActionMap().put("bench", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent ae) {
+                var code = editor.getSelectedText();
+                if (code == null || code.isBlank()) {
+                    append("Select an expression or statement to benchmark\n", errorStyle);
+                    return;
+                }
+                append("\n", null);
+                submitBenchmark(code);
+            }
+        });
+        var cmdPeriod = KeyStroke.getKeyStroke(KeyEvent.VK_PERIOD, meta);
+        editor.getInputMap(JComponent.WHEN_FOCUSED).put(cmdPeriod, "stop");
+        editor.getActionMap().put("stop", stopAction);
     }
 
-    private void append(Notice notice) {
-        try {
-            int line = editor.getLineOfOffset(notice.end()) + 1;
-            var msg = notice.message(getLocale());
-            var style = notice.isError() ? errorStyle : null;
-            var linkStyle = new SimpleAttributeSet(style);
-            linkStyle.addAttribute("pos", notice.end());
-            append("Line " + line + ": " + msg + "\n", linkStyle);
-        } catch (BadLocationException e) {
-            throw new RuntimeException(e);
+    /**
+     * Queues {@code code} for evaluation on the evaluator thread. Output and
+     * notices are handed back to the EDT as they are produced.
+     */
+    private void submit(String code, int startPos, boolean incremental) {
+        if (code.strip().startsWith(BENCH_COMMAND)) {
+            submitBenchmark(code.strip().substring(BENCH_COMMAND.length()));
+            return;
         }
+        var listener = listener(startPos);
+        submit(() -> {
+            if (incremental) {
+                engine.evaluateIncrementally(code, listener);
+            } else {
+                engine.evaluate(code, listener);
+            }
+        });
     }
 
-    private void append(String text, AttributeSet style) {
-        try {
-            var doc = output.getStyledDocument();
-            doc.insertString(doc.getLength(), text, style);
-            output.setCaretPosition(doc.getLength());
-        } catch (BadLocationException e) {
-            throw new RuntimeException(e);
+    /**
+     * Queues the cell at {@code startPos} for evaluation, unless its result
+     * is still valid, see {@link NotebookCells}.
+     */
+    private void submitCell(String code, int startPos) {
+        int line = editor.getDocument().getDefaultRootElement().getElementIndex(startPos) + 1;
+        var shown = listener(startPos);
+        submit(() -> {
+            var shell = engine.shell();
+            var cached = cells.cached(shell, code);
+            if (cached != null) {
+                append("Cell at line " + line + " is unchanged, it took " + cached.millis + " ms\n", metricsStyle);
+                append(cached.output, null);
+                SwingUtilities.invokeLater(() -> cells.mark(startPos, true));
+                return;
+            }
+            var output = new StringBuilder();
+            var recording = new ConchEngine.Listener() {
+                /** Whether a snippet was rejected or threw */
+                boolean failed;
+
+                @Override
+                public void value(String name, String value) {
+                    shown.value(name, value);
+                    output.append(valueLine(name, value));
+                }
+
+                @Override
+                public void inspect(String name, Object value) {
+                    shown.inspect(name, value);
+                }
+
+                @Override
+                public void notice(Notice notice) {
+                    failed |= notice.isError();
+                    shown.notice(notice);
+                }
+
+                @Override
+                public void metrics(EvalMetrics metrics) {
+                    shown.metrics(metrics);
+                }
+
+            };
+            long start = System.nanoTime();
+            // snippets that threw do not stop the evaluation, only their notices tell
+            boolean ok = engine.evaluate(code, recording) && !recording.failed;
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            if (ok) {
+                cells.store(shell, code, output.toString(), millis);
+            }
+            append("Cell at line " + line + " took " + millis + " ms\n", metricsStyle);
+            SwingUtilities.invokeLater(() -> cells.mark(startPos, ok));
+        });
+    }
+
+    /**
+     * Runs {@code code} as a background job, in a session forked from this
+     * one as of the last run that finished, so that a job starts right away
+     * even while a snippet runs. Shown in the Jobs tab.
+     */
+    private void submitJob(String code) {
+        if (shellFactory == null) {
+            append("Background jobs need a panel created from a JShell.Builder\n", errorStyle);
+            return;
         }
+        var job = jobs.add(code);
+        tabs.setSelectedComponent(jobs);
+        jobs.start(job, declared, shellFactory);
     }
 
-    private void run(String source, Consumer<String> log, Consumer<Notice> notices) {
-        var remainingSource = source;
-        int currentPos = 0;
-        do {
-            var c = shell.sourceCodeAnalysis().analyzeCompletion(remainingSource);
-            var snippet = c.source() == null ? remainingSource : c.source();
-            int startPos = currentPos;
-            int endPos = currentPos + snippet.length();
-            if (!c.completeness().isComplete()) {
-                notices.accept(Notice.error(startPos, endPos, "Incomplete input"));
-                break;
+    private static String valueLine(String name, String value) {
+        return (name == null ? value : name + " => " + value) + "\n";
+    }
+
+    /**
+     * Shows the events of evaluating code that starts at {@code startPos} in
+     * the editor.
+     */
+    private ConchEngine.Listener listener(int startPos) {
+        return new ConchEngine.Listener() {
+
+            @Override
+            public void value(String name, String value) {
+                append(valueLine(name, value), null);
+            }
+
+            @Override
+            public void inspect(String name, Object value) {
+                if (InspectorPanel.isInspectable(value)) {
+                    inspector.add(name, value);
+                }
+            }
+
+            @Override
+            public void notice(Notice notice) {
+                var n = Notice.wrap(startPos, notice);
+                SwingUtilities.invokeLater(() -> {
+                    append(n);
+                    parser.add(n);
+                });
             }
 
-            var snippetEvents = shell.eval(snippet);
+            @Override
+            public void metrics(EvalMetrics metrics) {
+                metricsListeners.forEach(l -> l.accept(metrics));
+                if (metricsShown) {
+                    append(metrics + "\n", metricsStyle);
+                }
+            }
+
+            @Override
+            public void skipped(int count) {
+                append("(" + count + " unchanged snippets skipped)\n", null);
+            }
 
-            for (var e : snippetEvents) {
-                if (e.status() == Status.REJECTED) {
-                    shell.diagnostics(e.snippet())
-                            .forEach(diag -> notices.accept(Notice.wrap(startPos, new DiagNotice(diag))));
+        };
+    }
+
+    private void submitBenchmark(String code) {
+        append("bench: " + code.strip() + "\n", metricsStyle);
+        submit(() -> {
+            try {
+                var result = new SnippetBenchmark(engine.shell()).run(code);
+                append(result + "\n", null);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                append(e.getMessage() + "\n", errorStyle);
+            }
+        });
+    }
+
+    private void submit(Runnable job) {
+        int generation = stopGeneration.get();
+        setRunning(pendingJobs.incrementAndGet());
+        checker.evaluating();
+        evaluator.execute(() -> {
+            try {
+                if (generation != stopGeneration.get()) {
                     return;
                 }
-                if (e.value() != null) {
-                    if (e.snippet() instanceof DeclarationSnippet) {
-                        var ds = (DeclarationSnippet) e.snippet();
-                        log.accept(ds.name() + " => " + e.value());
-                    } else {
-                        log.accept(e.value());
+                job.run();
+            } catch (RuntimeException e) {
+                append(e + "\n", errorStyle);
+            } finally {
+                System.out.flush();
+                System.err.flush();
+                checker.sessionChanged();
+                var snapshot = shellFactory != null ? SessionJournal.snapshot(engine.shell()) : null;
+                pendingJobs.decrementAndGet();
+                SwingUtilities.invokeLater(() -> {
+                    if (snapshot != null) {
+                        declared = snapshot;
                     }
-                }
-                if (e.exception() != null) {
-                    var sb = trace(e.exception());
-                    notices.accept(Notice.error(startPos, endPos, sb));
-                }
+                    editor.forceReparsing(parser);
+                    // the count as of now, a job may have been queued since
+                    setRunning(pendingJobs.get());
+                });
             }
-            remainingSource = c.remaining();
-            currentPos += snippet.length();
-        } while (!remainingSource.isEmpty());
+        });
+    }
+
+    /**
+     * Sets whether running the whole buffer skips the snippets that did not
+     * change since the previous run, see {@link IncrementalRun}.
+     */
+    public void setIncrementalRun(boolean incremental) {
+        incrementalRun.setSelected(incremental);
+    }
+
+    /**
+     * Sets whether the snippets are compiled as they are edited, without
+     * running them, to show their errors right away. Defaults to
+     * {@code true}.
+     */
+    public void setCheckAsYouType(boolean check) {
+        checker.setEnabled(check);
+    }
+
+    /**
+     * Sets whether the cost of every evaluated snippet is shown in the output.
+     */
+    public void setShowMetrics(boolean show) {
+        showMetrics.setSelected(show);
+    }
+
+    /**
+     * Sets how long a snippet has to run before its thread is sampled, the
+     * resulting profile is shown in the Profile tab. A negative value turns
+     * profiling off. Defaults to one second.
+     */
+    public void setProfilerThreshold(long millis) {
+        engine.setProfilerThreshold(millis);
+    }
+
+    /**
+     * Keeps the imports and declarations of the session in {@code file}, and
+     * first restores those an earlier session kept there. The restore runs in
+     * the background, code run meanwhile is evaluated after it. See
+     * {@link SessionJournal} for what is kept.
+     */
+    public void setSessionJournal(Path file) {
+        submit(() -> {
+            var journal = SessionJournal.open(file);
+            if (journal.size() > 0) {
+                long start = System.nanoTime();
+                int restored = journal.restore(engine.shell());
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                append("Restored " + restored + " of " + journal.size() + " declarations in " + millis + " ms\n",
+                        metricsStyle);
+            }
+            engine.setJournal(journal);
+        });
+    }
+
+    /**
+     * Adds {@code path} to the class path of the session, and of the sessions
+     * after a {@link #resetSession() reset}. Its types are completed like
+     * those of the JVM's class path, see {@link TypeIndex}. Must be called on
+     * the EDT.
+     */
+    public void addToClasspath(String path) {
+        addedClasspath.add(path);
+        completions.addTypeIndex(TypeIndex.of(List.of(Path.of(path))));
+        checker.addToClasspath(path);
+        submit(() -> engine.shell().addToClasspath(path));
+    }
+
+    /**
+     * Sets whether the completions accepted in this panel are ranked together
+     * with those of earlier sessions, kept in {@code ~/.conch}, rather than
+     * from scratch. Defaults to {@code false}.
+     */
+    public void setRememberCompletions(boolean remember) {
+        completions.setRanking(remember ? CompletionRanking.persistent() : new CompletionRanking());
+    }
+
+    /**
+     * Adds a listener for the metrics of every evaluated snippet. It is called
+     * on the evaluator thread, see {@link EvalMetrics} for what is measured.
+     */
+    public void addMetricsListener(Consumer<EvalMetrics> listener) {
+        metricsListeners.add(listener);
+    }
+
+    public void removeMetricsListener(Consumer<EvalMetrics> listener) {
+        metricsListeners.remove(listener);
     }
 
-    private String trace(JShellException exc) {
-        var sb = new StringBuilder();
-        if (exc instanceof EvalException) {
-            sb.append(((EvalException) exc).getExceptionClassName());
-            sb.append(": ");
+    /**
+     * Sets whether a snippet that writes faster than the panel can display
+     * waits for it, instead of having its excess output elided. Defaults to
+     * {@code false}.
+     */
+    public void setOutputBackpressure(boolean block) {
+        stdout.setBlocking(block);
+        stderr.setBlocking(block);
+    }
+
+    private void capturedOutput() {
+        SwingUtilities.invokeLater(() -> {
+            if (!capturePump.isRunning()) {
+                capturePump.restart();
+            }
+        });
+    }
+
+    private void pumpCapturedOutput() {
+        boolean more = stdout.drain(CAPTURE_CHUNKS_PER_FRAME, text -> append(text, null));
+        more |= stderr.drain(CAPTURE_CHUNKS_PER_FRAME, text -> append(text, stderrStyle));
+        if (more) {
+            capturePump.restart();
+        }
+    }
+
+    /**
+     * Stops the snippet currently executing and discards queued jobs.
+     */
+    public void stop() {
+        stopGeneration.incrementAndGet();
+        engine.stop();
+    }
+
+    /**
+     * Releases the threads of the panel once it is no longer used. Must be
+     * called on the EDT, the panel can't be used afterwards.
+     */
+    public void dispose() {
+        completions.dispose();
+        checker.dispose();
+        jobs.dispose();
+    }
+
+    /**
+     * Sets whether shells are warmed up before they are used: the current one
+     * on the evaluator thread right away, and a standby shell for the next
+     * {@link #resetSession()} in the background. Costs the memory of a second
+     * shell. Defaults to {@code false}.
+     */
+    public void setWarmUp(boolean warmUp) {
+        if (warmUp && !this.warmUp) {
+            var current = engine.shell();
+            evaluator.execute(() -> ShellWarmup.warmUp(current));
+            if (shellFactory != null) {
+                standby = ShellWarmup.standby(shellFactory);
+            }
+        } else if (!warmUp && standby != null) {
+            standby.thenAccept(JShell::close);
+            standby = null;
+        }
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * Stops the current session and continues in a new one, without any of
+     * the snippets evaluated so far. With {@link #setWarmUp(boolean) warm-up}
+     * the new session is the standby shell, ready for use. Only supported by
+     * panels created from a {@link JShell.Builder}.
+     *
+     * @throws IllegalStateException if the panel was given its shell
+     */
+    public void resetSession() {
+        if (shellFactory == null) {
+            throw new IllegalStateException("resetting needs a panel created from a JShell.Builder");
+        }
+        var next = standby;
+        standby = warmUp ? ShellWarmup.standby(shellFactory) : null;
+        stop();
+        submit(() -> {
+            var fresh = next != null ? next.join() : shellFactory.get();
+            addedClasspath.forEach(fresh::addToClasspath);
+            cells.watch(fresh);
+            engine.setShell(fresh).close();
+            SwingUtilities.invokeLater(() -> {
+                completions.setShell(fresh);
+                parser.clear();
+                inspector.clear();
+                cells.clear();
+                append("Session reset\n", metricsStyle);
+            });
+        });
+    }
+
+    private void setRunning(int pending) {
+        stopAction.setEnabled(pending > 0);
+        if (pending == 0) {
+            status.setText("Ready");
+        } else if (pending == 1) {
+            status.setText("Running\u2026");
+        } else {
+            status.setText("Running\u2026 (" + (pending - 1) + " queued)");
+        }
+    }
+
+    private void append(Notice notice) {
+        try {
+            int line = editor.getLineOfOffset(notice.end()) + 1;
+            var msg = notice.message(getLocale());
+            var style = notice.isError() ? errorStyle : null;
+            append("Line " + line + ": " + msg + "\n", OutputConsole.link(notice.end(), style));
+        } catch (BadLocationException e) {
+            throw new RuntimeException(e);
         }
-        sb.append(exc.getMessage());
-        // TODO full stack trace
-        return sb.toString();
     }
 
+    private void append(String text, AttributeSet style) {
+        output.append(text, style);
+    }
+
+    /**
+     * Returns the output console, e.g. to change its line limit.
+     */
+    public OutputConsole output() {
+        return output;
+    }
+
+    /**
+     * The shell of the current session, replaced by {@link #resetSession()}.
+     */
     public JShell shell() {
-        return shell;
+        return engine.shell();
+    }
+
+    /**
+     * The engine evaluating the panel's code, e.g. to evaluate scripts in
+     * the same session.
+     */
+    public ConchEngine engine() {
+        return engine;
     }
 
     public static void main(String[] args) {
-        var p = new LocalExecutionControlProvider();
-        var shell = JShell.builder().executionEngine(p, p.defaultParameters()).in(System.in).out(System.out)
-                .err(System.err).build();
+        // -Dconch.agents runs snippets in agent JVMs
+        var builder = (Boolean.getBoolean("conch.agents") ? ConchEngine.agentBuilder() : ConchEngine.builder())
+                .in(System.in);
         SwingUtilities.invokeLater(() -> {
-            var conch = new ConchPanel(shell);
+            var conch = new ConchPanel(builder);
+            conch.setWarmUp(true);
+            conch.setSessionJournal(Path.of(System.getProperty("user.home"), ".conch", "session.journal"));
             var frame = new JFrame("Conch");
             frame.setContentPane(conch);
             frame.pack();
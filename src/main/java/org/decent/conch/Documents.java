@@ -0,0 +1,34 @@
+package org.decent.conch;
+
+import java.util.function.Consumer;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+final class Documents {
+
+    private Documents() {
+    }
+
+    static DocumentListener onDocumentChange(Consumer<DocumentEvent> consumer) {
+        return new DocumentListener() {
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                consumer.accept(e);
+            }
+
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                consumer.accept(e);
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                consumer.accept(e);
+            }
+
+        };
+    }
+
+}
@@ -0,0 +1,165 @@
+package org.decent.conch;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * What evaluating one snippet cost the JVM. Thread CPU time and allocation
+ * are measured on the snippet thread and are only available with the
+ * {@link ConchExecutionControl} engine, they are -1 otherwise. GC counts
+ * and times are JVM wide, they include collections caused by other threads.
+ */
+public final class EvalMetrics {
+
+    private final String source;
+    private final long wallNanos;
+    private final long cpuNanos;
+    private final long allocatedBytes;
+    private final long gcCount;
+    private final long gcMillis;
+
+    EvalMetrics(String source, long wallNanos, long cpuNanos, long allocatedBytes, long gcCount, long gcMillis) {
+        this.source = source;
+        this.wallNanos = wallNanos;
+        this.cpuNanos = cpuNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.gcCount = gcCount;
+        this.gcMillis = gcMillis;
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public long wallNanos() {
+        return wallNanos;
+    }
+
+    public long cpuNanos() {
+        return cpuNanos;
+    }
+
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long gcCount() {
+        return gcCount;
+    }
+
+    public long gcMillis() {
+        return gcMillis;
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+        sb.append("wall ").append(millis(wallNanos));
+        if (cpuNanos >= 0) {
+            sb.append(", cpu ").append(millis(cpuNanos));
+        }
+        if (allocatedBytes >= 0) {
+            sb.append(", alloc ").append(bytes(allocatedBytes));
+        }
+        sb.append(", gc ").append(gcCount).append(" / ").append(gcMillis).append(" ms");
+        return sb.toString();
+    }
+
+    static String millis(long nanos) {
+        return String.format("%.3f ms", nanos / 1e6);
+    }
+
+    static String bytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    /**
+     * Measures an evaluation: wall time and GC from the evaluating thread, CPU
+     * time and allocation from the snippet threads it observes. A single
+     * evaluation may run several snippet threads, their costs are summed.
+     */
+    static final class Recorder implements ConchExecutionControl.SnippetObserver {
+
+        private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private static final List<GarbageCollectorMXBean> collectors = ManagementFactory
+                .getGarbageCollectorMXBeans();
+
+        private final long wallStart;
+        private final long gcCountStart;
+        private final long gcMillisStart;
+        private long cpuNanos = -1;
+        private long allocatedBytes = -1;
+        private long cpuStart;
+        private long allocStart;
+
+        Recorder() {
+            this.gcCountStart = gcCount();
+            this.gcMillisStart = gcMillis();
+            this.wallStart = System.nanoTime();
+        }
+
+        @Override
+        public void started(Thread thread) {
+            cpuStart = cpuTime();
+            allocStart = allocated(thread);
+        }
+
+        @Override
+        public void finished(Thread thread) {
+            long cpu = cpuTime();
+            if (cpu >= 0 && cpuStart >= 0) {
+                cpuNanos = Math.max(0, cpuNanos) + cpu - cpuStart;
+            }
+            long alloc = allocated(thread);
+            if (alloc >= 0 && allocStart >= 0) {
+                allocatedBytes = Math.max(0, allocatedBytes) + alloc - allocStart;
+            }
+        }
+
+        EvalMetrics finish(String source) {
+            long wall = System.nanoTime() - wallStart;
+            return new EvalMetrics(source, wall, cpuNanos, allocatedBytes, gcCount() - gcCountStart,
+                    gcMillis() - gcMillisStart);
+        }
+
+        private static long cpuTime() {
+            return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+        }
+
+        private static long allocated(Thread thread) {
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                var sunThreads = (com.sun.management.ThreadMXBean) threads;
+                if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                    return sunThreads.getThreadAllocatedBytes(thread.getId());
+                }
+            }
+            return -1;
+        }
+
+        private static long gcCount() {
+            long sum = 0;
+            for (var gc : collectors) {
+                sum += Math.max(0, gc.getCollectionCount());
+            }
+            return sum;
+        }
+
+        private static long gcMillis() {
+            long sum = 0;
+            for (var gc : collectors) {
+                sum += Math.max(0, gc.getCollectionTime());
+            }
+            return sum;
+        }
+
+    }
+
+}
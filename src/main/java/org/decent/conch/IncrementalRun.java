@@ -0,0 +1,137 @@
+package org.decent.conch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jdk.jshell.DeclarationSnippet;
+import jdk.jshell.JShell;
+import jdk.jshell.Snippet;
+import jdk.jshell.Snippet.Status;
+import jdk.jshell.SnippetEvent;
+import jdk.jshell.VarSnippet;
+
+/**
+ * Remembers the snippets of the previous "run all" so that the next one can
+ * skip the snippets whose source did not change. A snippet is evaluated again
+ * if its source is new, if its previous evaluation threw or JShell no longer
+ * considers it valid, or if it references a name that was (re)defined or touched by a
+ * snippet evaluated earlier in the same run. Like in a notebook, evaluation
+ * only goes forward: the snippets before the first change are not evaluated
+ * again, even if a later statement mutates the state they created.
+ * <p>
+ * Not thread safe, used from the evaluator thread only.
+ */
+final class IncrementalRun {
+
+    private Map<String, Deque<Snippet>> previous = new HashMap<>();
+    private Map<String, Deque<Snippet>> current = new HashMap<>();
+    private final Set<String> changed = new HashSet<>();
+    private int skipped;
+
+    void begin() {
+        current = new HashMap<>();
+        changed.clear();
+        skipped = 0;
+    }
+
+    /**
+     * Returns {@code true} if {@code source} was evaluated by the previous run
+     * and is still up to date, in which case it is carried over to this run.
+     */
+    boolean skip(JShell shell, String source) {
+        var key = source.strip();
+        var candidates = previous.get(key);
+        var prev = candidates == null ? null : candidates.peek();
+        if (prev == null || shell.status(prev) != Status.VALID || references(source, changed)) {
+            return false;
+        }
+        candidates.poll();
+        remember(key, prev);
+        skipped++;
+        return true;
+    }
+
+    void evaluated(JShell shell, String source, List<SnippetEvent> events) {
+        var key = source.strip();
+        var previousOfKey = previous.get(key);
+        if (previousOfKey != null) {
+            previousOfKey.poll();
+        }
+        for (var e : events) {
+            var snippet = e.snippet();
+            // a snippet that threw stays valid, but has to run again to show why
+            if (e.causeSnippet() == null && e.exception() == null) {
+                remember(key, snippet);
+            }
+            if (snippet instanceof DeclarationSnippet) {
+                changed.add(((DeclarationSnippet) snippet).name());
+            }
+        }
+        // statements may mutate the variables they mention
+        var variables = new HashSet<String>();
+        shell.variables().map(VarSnippet::name).forEach(variables::add);
+        for (var id : identifiers(source)) {
+            if (variables.contains(id)) {
+                changed.add(id);
+            }
+        }
+    }
+
+    /**
+     * Ends the run, the snippets seen by it become the baseline of the next
+     * one. Returns the number of snippets skipped.
+     */
+    int end() {
+        previous = current;
+        return skipped;
+    }
+
+    /**
+     * Forgets the previous run, for a new session whose snippets it cannot
+     * refer to.
+     */
+    void clear() {
+        previous = new HashMap<>();
+        current = new HashMap<>();
+    }
+
+    private void remember(String key, Snippet snippet) {
+        current.computeIfAbsent(key, k -> new ArrayDeque<>()).add(snippet);
+    }
+
+    private static boolean references(String source, Set<String> names) {
+        if (names.isEmpty()) {
+            return false;
+        }
+        for (var id : identifiers(source)) {
+            if (names.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static Set<String> identifiers(String source) {
+        var ids = new HashSet<String>();
+        int i = 0;
+        int len = source.length();
+        while (i < len) {
+            if (Character.isJavaIdentifierStart(source.charAt(i))) {
+                int start = i++;
+                while (i < len && Character.isJavaIdentifierPart(source.charAt(i))) {
+                    i++;
+                }
+                ids.add(source.substring(start, i));
+            } else {
+                i++;
+            }
+        }
+        return ids;
+    }
+
+}
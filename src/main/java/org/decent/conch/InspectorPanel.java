@@ -0,0 +1,276 @@
+package org.decent.conch;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTree;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeWillExpandListener;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+
+/**
+ * Shows the objects of the latest results as a tree. Nothing is read before
+ * a node is expanded: then its fields, or a page of at most {@value #PAGE}
+ * elements of a collection, map or array, are read in the background. Larger
+ * containers are split into nested ranges, so a node never has more than
+ * {@value #PAGE} children. Values are labelled with a {@link ValuePreview},
+ * off the EDT like everything else that calls code of the values.
+ * <p>
+ * The inspected objects are kept reachable until they are cleared or pushed
+ * out by {@value #MAX_RESULTS} newer results.
+ */
+class InspectorPanel extends JPanel {
+
+    private static final int PAGE = 100;
+    private static final int MAX_RESULTS = 20;
+    private static final int LABEL_LENGTH = 200;
+
+    private static final ExecutorService reader = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "conch-inspect");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * A value, or the elements {@code [from, to)} of the container
+     * {@code value}.
+     */
+    private static final class Item {
+        final String label;
+        final Object value;
+        final int from;
+        final int to;
+        /** Whether it has children, known before it is shown */
+        final boolean expandable;
+        /** EDT confined */
+        boolean loading;
+
+        Item(String label, Object value) {
+            this(label, value, -1, -1);
+        }
+
+        Item(String label, Object value, int from, int to) {
+            this.label = label;
+            this.value = value;
+            this.from = from;
+            this.to = to;
+            this.expandable = from >= 0 || isInspectable(value);
+        }
+
+        boolean isRange() {
+            return from >= 0;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final DefaultMutableTreeNode root = new DefaultMutableTreeNode("Results");
+    private final DefaultTreeModel model = new DefaultTreeModel(root);
+    private final JTree tree = new JTree(model);
+
+    InspectorPanel() {
+        super(new BorderLayout());
+        tree.setRootVisible(false);
+        tree.setShowsRootHandles(true);
+        tree.addTreeWillExpandListener(new TreeWillExpandListener() {
+
+            @Override
+            public void treeWillExpand(TreeExpansionEvent event) {
+                load((DefaultMutableTreeNode) event.getPath().getLastPathComponent());
+            }
+
+            @Override
+            public void treeWillCollapse(TreeExpansionEvent event) {
+            }
+
+        });
+        var clear = new JButton("Clear");
+        clear.addActionListener(e -> clear());
+        var top = new JPanel(new FlowLayout(FlowLayout.LEADING));
+        top.add(clear);
+        add(top, BorderLayout.PAGE_START);
+        add(new JScrollPane(tree));
+    }
+
+    /**
+     * Whether {@code value} has anything to show beyond its preview.
+     */
+    static boolean isInspectable(Object value) {
+        return value != null && !(value instanceof String) && !(value instanceof Number)
+                && !(value instanceof Boolean) && !(value instanceof Character) && !(value instanceof Enum)
+                && ValuePreview.sizeOf(value) != 0;
+    }
+
+    /**
+     * Adds a result, {@code name} is the variable or {@code null} for an
+     * expression. Called on the thread that evaluated it, which renders the
+     * label, so that no code of the value runs on the EDT.
+     */
+    void add(String name, Object value) {
+        var item = new Item((name == null ? "" : name + " = ") + preview(value), value);
+        SwingUtilities.invokeLater(() -> show(item));
+    }
+
+    private void show(Item item) {
+        root.add(node(item));
+        model.nodesWereInserted(root, new int[] { root.getChildCount() - 1 });
+        while (root.getChildCount() > MAX_RESULTS) {
+            var oldest = root.getChildAt(0);
+            root.remove(0);
+            model.nodesWereRemoved(root, new int[] { 0 }, new Object[] { oldest });
+        }
+        tree.expandRow(tree.getRowCount() - 1);
+    }
+
+    void clear() {
+        root.removeAllChildren();
+        model.reload();
+    }
+
+    private static DefaultMutableTreeNode node(Item item) {
+        var node = new DefaultMutableTreeNode(item);
+        if (item.expandable) {
+            node.add(new DefaultMutableTreeNode("Loading\u2026"));
+        }
+        return node;
+    }
+
+    private void load(DefaultMutableTreeNode node) {
+        if (!(node.getUserObject() instanceof Item) || node.getChildCount() != 1) {
+            return;
+        }
+        var item = (Item) node.getUserObject();
+        var placeholder = (DefaultMutableTreeNode) node.getFirstChild();
+        if (item.loading || placeholder.getUserObject() instanceof Item) {
+            return;
+        }
+        item.loading = true;
+        reader.execute(() -> {
+            List<Item> children;
+            try {
+                children = children(item);
+            } catch (RuntimeException e) {
+                children = List.of(new Item(e.toString(), null));
+            }
+            var loaded = children;
+            SwingUtilities.invokeLater(() -> {
+                node.removeAllChildren();
+                loaded.forEach(child -> node.add(node(child)));
+                model.nodeStructureChanged(node);
+            });
+        });
+    }
+
+    private static List<Item> children(Item item) {
+        var value = item.value;
+        int size = ValuePreview.sizeOf(value);
+        if (item.isRange()) {
+            return elements(value, item.from, item.to);
+        }
+        if (size >= 0) {
+            return elements(value, 0, size);
+        }
+        if (value instanceof Map.Entry) {
+            var entry = (Map.Entry<?, ?>) value;
+            return List.of(new Item("key = " + preview(entry.getKey()), entry.getKey()),
+                    new Item("value = " + preview(entry.getValue()), entry.getValue()));
+        }
+        return fields(value);
+    }
+
+    /**
+     * The elements {@code [from, to)}, or ranges of them if there are more
+     * than a page.
+     */
+    private static List<Item> elements(Object container, int from, int to) {
+        var ret = new ArrayList<Item>();
+        long span = to - from;
+        if (span > PAGE) {
+            long chunk = PAGE;
+            while (span > chunk * PAGE) {
+                chunk *= PAGE;
+            }
+            for (long start = from; start < to; start += chunk) {
+                int end = (int) Math.min(to, start + chunk);
+                ret.add(new Item("[" + start + "\u2026" + (end - 1) + "]", container, (int) start, end));
+            }
+            return ret;
+        }
+        int i = from;
+        if (container.getClass().isArray()) {
+            for (; i < to && i < Array.getLength(container); i++) {
+                ret.add(element(i, Array.get(container, i)));
+            }
+        } else if (container instanceof List && container instanceof RandomAccess) {
+            var list = (List<?>) container;
+            for (; i < to && i < list.size(); i++) {
+                ret.add(element(i, list.get(i)));
+            }
+        } else {
+            var elements = container instanceof Map ? ((Map<?, ?>) container).entrySet()
+                    : (Collection<?>) container;
+            var it = elements.iterator();
+            for (int skip = 0; skip < from && it.hasNext(); skip++) {
+                it.next();
+            }
+            for (; i < to && it.hasNext(); i++) {
+                var e = it.next();
+                if (e instanceof Map.Entry) {
+                    var entry = (Map.Entry<?, ?>) e;
+                    ret.add(new Item(preview(entry.getKey()) + " => " + preview(entry.getValue()), entry));
+                } else {
+                    ret.add(element(i, e));
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static Item element(int index, Object value) {
+        return new Item("[" + index + "] " + preview(value), value);
+    }
+
+    private static List<Item> fields(Object value) {
+        var ret = new ArrayList<Item>();
+        for (var type = value.getClass(); type != null; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                var label = field.getName() + " = ";
+                try {
+                    field.setAccessible(true);
+                    var fieldValue = field.get(value);
+                    ret.add(new Item(label + preview(fieldValue), fieldValue));
+                } catch (RuntimeException | IllegalAccessException e) {
+                    // e.g. the module does not open the package
+                    ret.add(new Item(label + "(inaccessible)", null));
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static String preview(Object value) {
+        return ValuePreview.of(value, LABEL_LENGTH);
+    }
+
+}
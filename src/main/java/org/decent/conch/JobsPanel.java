@@ -0,0 +1,177 @@
+package org.decent.conch;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTable;
+import javax.swing.JTextArea;
+import javax.swing.ListSelectionModel;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+import jdk.jshell.JShell;
+
+/**
+ * Runs {@link BackgroundJob}s, at most {@link #MAX_RUNNING} at a time, and
+ * shows their state, running time and results. The output the jobs print
+ * goes to the panel's output, like that of the panel's session.
+ */
+class JobsPanel extends JPanel {
+
+    static final int MAX_RUNNING = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    private static final String[] COLUMNS = { "Job", "State", "Snippets", "Time", "Result" };
+
+    private final ExecutorService runner;
+    private final List<BackgroundJob> jobs = new ArrayList<>();
+    private final JobsModel model = new JobsModel();
+    private final JTable table = new JTable(model);
+    private final JTextArea log = new JTextArea();
+    private final Timer clock = new Timer(500, e -> tick());
+
+    private final class JobsModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int getRowCount() {
+            return jobs.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            var job = jobs.get(row);
+            switch (column) {
+            case 0:
+                return job.title();
+            case 1:
+                return job.state;
+            case 2:
+                return job.snippets;
+            case 3:
+                return String.format("%.1f s", job.elapsedMillis() / 1000.0);
+            default:
+                return job.result;
+            }
+        }
+    }
+
+    /**
+     * Jobs print to {@code out} and {@code err} when they run in-process.
+     */
+    JobsPanel(OutputStream out, OutputStream err) {
+        super(new BorderLayout());
+        runner = Executors.newFixedThreadPool(MAX_RUNNING, r -> {
+            var t = new Thread(() -> {
+                SystemStreams.redirectCurrentThread(out, err);
+                r.run();
+            }, "conch-job");
+            t.setDaemon(true);
+            return t;
+        });
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getSelectionModel().addListSelectionListener(e -> showLog());
+        table.getColumnModel().getColumn(0).setPreferredWidth(200);
+        table.getColumnModel().getColumn(4).setPreferredWidth(300);
+        log.setEditable(false);
+
+        var cancel = new JButton("Cancel");
+        cancel.addActionListener(e -> {
+            var job = selected();
+            if (job != null) {
+                job.cancel();
+            }
+        });
+        var clear = new JButton("Remove finished");
+        clear.addActionListener(e -> {
+            jobs.removeIf(job -> job.state.isFinished());
+            model.fireTableDataChanged();
+            showLog();
+        });
+        var top = new JPanel(new FlowLayout(FlowLayout.LEADING));
+        top.add(cancel);
+        top.add(clear);
+        add(top, BorderLayout.PAGE_START);
+        var split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(table), new JScrollPane(log));
+        split.setResizeWeight(0.6);
+        add(split);
+    }
+
+    /**
+     * Adds a job for {@code code}, waiting for {@link #start}. Must be called
+     * on the EDT.
+     */
+    BackgroundJob add(String code) {
+        var job = new BackgroundJob(code, this::changed);
+        jobs.add(job);
+        model.fireTableRowsInserted(jobs.size() - 1, jobs.size() - 1);
+        clock.start();
+        return job;
+    }
+
+    /**
+     * Queues {@code job} to run in a shell built by {@code shells}, after
+     * replaying {@code declarations}.
+     */
+    void start(BackgroundJob job, SessionJournal declarations, Supplier<JShell> shells) {
+        runner.execute(() -> job.run(declarations, shells));
+    }
+
+    /**
+     * Cancels the jobs and releases the job threads. Must be called on the
+     * EDT.
+     */
+    void dispose() {
+        clock.stop();
+        jobs.forEach(BackgroundJob::cancel);
+        runner.shutdown();
+    }
+
+    private void changed() {
+        if (!jobs.isEmpty()) {
+            model.fireTableRowsUpdated(0, jobs.size() - 1);
+        }
+        showLog();
+    }
+
+    private void tick() {
+        if (jobs.stream().allMatch(job -> job.state.isFinished())) {
+            clock.stop();
+        }
+        if (!jobs.isEmpty()) {
+            model.fireTableRowsUpdated(0, jobs.size() - 1);
+        }
+    }
+
+    private BackgroundJob selected() {
+        int row = table.getSelectedRow();
+        return row < 0 || row >= jobs.size() ? null : jobs.get(row);
+    }
+
+    private void showLog() {
+        var job = selected();
+        var text = job == null ? "" : job.log();
+        if (!text.equals(log.getText())) {
+            log.setText(text);
+        }
+    }
+
+}
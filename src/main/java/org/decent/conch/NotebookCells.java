@@ -0,0 +1,210 @@
+package org.decent.conch;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.Position;
+
+import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
+
+import jdk.jshell.JShell;
+
+/**
+ * Splits the editor into notebook cells at lines starting with
+ * {@value #DELIMITER}, and remembers the result of every cell that ran
+ * without errors. Running a cell again reuses its result as long as the cell
+ * is unchanged and the declarations it references are still the ones it saw,
+ * so a cell is re-evaluated when its text changes or a cell it depends on
+ * declares a name it uses again, even with the same source, which JShell
+ * evaluates as the same snippet. Like {@link IncrementalRun}, state mutated
+ * by statements is not tracked.
+ * <p>
+ * The first line of a cell that ran is highlighted until the cell is edited.
+ * Cell positions are EDT confined, the results may be used from the
+ * evaluator thread.
+ */
+final class NotebookCells {
+
+    static final String DELIMITER = "//%%";
+    private static final int MAX_RESULTS = 256;
+    private static final Color OK = new Color(0xe6f4e6);
+    private static final Color FAILED = new Color(0xfbe4e4);
+
+    /**
+     * The result of a cell: what it showed in the output and how long it
+     * took.
+     */
+    static final class Result {
+        final String output;
+        final long millis;
+        final String upstream;
+
+        Result(String output, long millis, String upstream) {
+            this.output = output;
+            this.millis = millis;
+            this.upstream = upstream;
+        }
+    }
+
+    private static final class Mark {
+        final Position position;
+        final Object tag;
+
+        Mark(Position position, Object tag) {
+            this.position = position;
+            this.tag = tag;
+        }
+    }
+
+    private final RSyntaxTextArea textArea;
+    private final List<Mark> marks = new ArrayList<>();
+    private final Map<String, Result> results = Collections.synchronizedMap(
+            new LinkedHashMap<String, Result>(MAX_RESULTS, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                    return size() > MAX_RESULTS;
+                }
+            });
+    /** How often the snippets of the session were evaluated, by id */
+    private final Map<String, Integer> evaluations = new ConcurrentHashMap<>();
+
+    NotebookCells(RSyntaxTextArea textArea) {
+        this.textArea = textArea;
+        textArea.getDocument().addDocumentListener(Documents.onDocumentChange(this::edited));
+    }
+
+    /**
+     * The offsets {@code [start, end)} of the cell at {@code offset}. A
+     * delimiter line belongs to the cell it starts.
+     */
+    int[] cellAt(int offset) {
+        var root = textArea.getDocument().getDefaultRootElement();
+        int line = root.getElementIndex(offset);
+        int first = line;
+        while (first > 0 && !isDelimiter(root.getElement(first))) {
+            first--;
+        }
+        int next = line + 1;
+        while (next < root.getElementCount() && !isDelimiter(root.getElement(next))) {
+            next++;
+        }
+        int start = root.getElement(first).getStartOffset();
+        int end = next < root.getElementCount() ? root.getElement(next).getStartOffset()
+                : textArea.getDocument().getLength();
+        return new int[] { start, end };
+    }
+
+    private boolean isDelimiter(Element line) {
+        try {
+            int start = line.getStartOffset();
+            int length = Math.min(line.getEndOffset(), textArea.getDocument().getLength()) - start;
+            return textArea.getDocument().getText(start, length).stripLeading().startsWith(DELIMITER);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Follows the evaluations of {@code shell}, the shell of a new session.
+     */
+    void watch(JShell shell) {
+        evaluations.clear();
+        shell.onSnippetEvent(e -> {
+            if (e.causeSnippet() == null) {
+                evaluations.merge(e.snippet().id(), 1, Integer::sum);
+            }
+        });
+    }
+
+    /**
+     * The result of the last run of {@code source}, if it is still valid in
+     * {@code shell}, otherwise {@code null}.
+     */
+    Result cached(JShell shell, String source) {
+        var result = results.get(source);
+        return result != null && result.upstream.equals(upstream(shell, source)) ? result : null;
+    }
+
+    /**
+     * Remembers the result of {@code source}, which just ran without errors
+     * in {@code shell}.
+     */
+    void store(JShell shell, String source, String output, long millis) {
+        results.put(source, new Result(output, millis, upstream(shell, source)));
+    }
+
+    /**
+     * The declarations {@code source} may reference, by name, snippet id and
+     * number of evaluations.
+     */
+    private String upstream(JShell shell, String source) {
+        var ids = IncrementalRun.identifiers(source);
+        return Stream.of(shell.variables(), shell.methods(), shell.types())
+                .flatMap(s -> s)
+                .filter(s -> ids.contains(s.name()))
+                .map(s -> s.name() + "#" + s.id() + "." + evaluations.getOrDefault(s.id(), 0))
+                .sorted()
+                .collect(Collectors.joining(","));
+    }
+
+    /**
+     * Highlights the first line of the cell starting at {@code start}.
+     */
+    void mark(int start, boolean ok) {
+        unmark(start, start + 1);
+        try {
+            int line = textArea.getLineOfOffset(start);
+            var tag = textArea.addLineHighlight(line, ok ? OK : FAILED);
+            marks.add(new Mark(textArea.getDocument().createPosition(start), tag));
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void edited(DocumentEvent e) {
+        if (marks.isEmpty() || e.getType() == DocumentEvent.EventType.CHANGE) {
+            return;
+        }
+        int offset = e.getOffset();
+        // the highlighter updates on the same event, change it afterwards
+        SwingUtilities.invokeLater(() -> {
+            int[] cell = cellAt(Math.min(offset, textArea.getDocument().getLength()));
+            unmark(cell[0], cell[1]);
+        });
+    }
+
+    /** Removes the marks within {@code [from, to)} */
+    private void unmark(int from, int to) {
+        for (var it = marks.iterator(); it.hasNext();) {
+            var mark = it.next();
+            int pos = mark.position.getOffset();
+            if (pos >= from && pos < to) {
+                textArea.removeLineHighlight(mark.tag);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets all results and marks, for a new session.
+     */
+    void clear() {
+        results.clear();
+        textArea.removeAllLineHighlights();
+        marks.clear();
+    }
+
+}
@@ -44,7 +44,7 @@ public interface Notice {
 
             @Override
             public int end() {
-                return start + notice.start();
+                return start + notice.end();
             }
 
         };
@@ -1,12 +1,14 @@
 package org.decent.conch;
 
+import java.awt.Point;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Consumer;
 
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
 import javax.swing.event.DocumentEvent;
-import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
 
 import org.fife.ui.rsyntaxtextarea.RSyntaxDocument;
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
@@ -16,59 +18,116 @@ import org.fife.ui.rsyntaxtextarea.parser.DefaultParserNotice;
 import org.fife.ui.rsyntaxtextarea.parser.ParseResult;
 import org.fife.ui.rsyntaxtextarea.parser.ParserNotice.Level;
 
+/**
+ * Reports the notices of the last run to the text area. Notices follow the
+ * edits of the document, only those an edit overlaps are dropped, see
+ * {@link NoticeStore}. Beyond {@value #MAX_REPORTED} notices only the visible
+ * ones are reported, and the text area is reparsed as it scrolls.
+ */
 public class NoticeParser extends AbstractParser {
 
+    private static final int MAX_REPORTED = 500;
+
     private final RSyntaxTextArea textArea;
-    private final List<Notice> notices = new ArrayList<>();
+    private final NoticeStore notices = new NoticeStore();
+    private int lineCount;
+    private JViewport viewport;
+    private int reportedFrom;
+    private int reportedTo;
 
     public NoticeParser(RSyntaxTextArea textArea) {
         this.textArea = textArea;
-        textArea.getDocument().addDocumentListener(onDocumentChange(e -> clear()));
+        var doc = textArea.getDocument();
+        lineCount = lineCount(doc);
+        doc.addDocumentListener(Documents.onDocumentChange(this::edited));
+    }
+
+    private static int lineCount(Document doc) {
+        return doc.getDefaultRootElement().getElementCount();
+    }
+
+    private void edited(DocumentEvent e) {
+        int lines = lineCount(e.getDocument());
+        int lineDelta = lines - lineCount;
+        lineCount = lines;
+        if (e.getType() == DocumentEvent.EventType.INSERT) {
+            notices.inserted(e.getOffset(), e.getLength(), lineDelta);
+        } else if (e.getType() == DocumentEvent.EventType.REMOVE) {
+            notices.removed(e.getOffset(), e.getLength(), -lineDelta);
+        }
     }
 
     @Override
     public ParseResult parse(RSyntaxDocument doc, String style) {
         var res = new DefaultParseResult(this);
-        for (var n : notices) {
-            try {
-                int line = textArea.getLineOfOffset(n.start());
-                var notice = new DefaultParserNotice(this, n.message(null), line, n.start(), n.length());
-                notice.setLevel(n.isError() ? Level.ERROR : Level.WARNING);
-                res.addNotice(notice);
-            } catch (BadLocationException ex) {
-                ex.printStackTrace();
-            }
+        int from = 0;
+        int to = doc.getLength();
+        if (notices.size() > MAX_REPORTED) {
+            var visible = visibleRange();
+            from = visible[0];
+            to = visible[1];
         }
+        reportedFrom = from;
+        reportedTo = to;
+        notices.forEach(from, to, (n, start, end, line) -> {
+            var notice = new DefaultParserNotice(this, n.message(null), line, start, end - start);
+            notice.setLevel(n.isError() ? Level.ERROR : Level.WARNING);
+            res.addNotice(notice);
+        });
         return res;
     }
 
+    private int[] visibleRange() {
+        if (viewport == null) {
+            viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, textArea);
+            if (viewport == null) {
+                return new int[] { 0, textArea.getDocument().getLength() };
+            }
+            viewport.addChangeListener(e -> {
+                if (notices.size() > MAX_REPORTED) {
+                    var visible = visibleRange();
+                    if (visible[0] != reportedFrom || visible[1] != reportedTo) {
+                        textArea.forceReparsing(this);
+                    }
+                }
+            });
+        }
+        var rect = viewport.getViewRect();
+        int from = textArea.viewToModel2D(rect.getLocation());
+        int to = textArea.viewToModel2D(new Point(rect.x + rect.width, rect.y + rect.height));
+        return new int[] { Math.max(0, from), Math.max(from, to) };
+    }
+
     public void clear() {
         notices.clear();
     }
 
+    /**
+     * Adds a notice, its position refers to the document as it is now.
+     */
     public void add(Notice notice) {
-        this.notices.add(notice);
+        try {
+            int line = textArea.getLineOfOffset(notice.start());
+            notices.add(notice, notice.start(), notice.end(), line);
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
     }
 
-    private static DocumentListener onDocumentChange(Consumer<DocumentEvent> consumer) {
-        return new DocumentListener() {
-
-            @Override
-            public void removeUpdate(DocumentEvent e) {
-                consumer.accept(e);
-            }
-
-            @Override
-            public void insertUpdate(DocumentEvent e) {
-                consumer.accept(e);
-            }
-
-            @Override
-            public void changedUpdate(DocumentEvent e) {
-                consumer.accept(e);
-            }
+    /**
+     * Removes the notices overlapping {@code [start, end)}.
+     */
+    public void removeRange(int start, int end) {
+        notices.removeRange(start, end);
+    }
 
-        };
+    /**
+     * The notices touching {@code [start, end]}, at their current position.
+     */
+    public List<Notice> noticesIn(int start, int end) {
+        var ret = new ArrayList<Notice>();
+        notices.forEach(start, end, (n, s, e, line) -> ret.add(Notice.wrap(s - n.start(), n)));
+        return ret;
     }
 
 }
@@ -0,0 +1,159 @@
+package org.decent.conch;
+
+import java.util.Arrays;
+
+/**
+ * Notices ordered by start offset, with their current position and line kept
+ * in primitive arrays next to them. Edits only touch the notices from the
+ * edit on: those after it are shifted, those overlapping it are dropped, the
+ * ones before it keep their position and line. Notices can't be longer than
+ * the longest one added, which bounds how far before an offset a search for
+ * overlapping notices has to start.
+ * <p>
+ * Not thread safe, used from the EDT.
+ */
+final class NoticeStore {
+
+    interface Visitor {
+        void visit(Notice notice, int start, int end, int line);
+    }
+
+    private Notice[] notices = new Notice[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int[] lines = new int[16];
+    private int size;
+    private int maxLength;
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(notices, 0, size, null);
+        size = 0;
+        maxLength = 0;
+    }
+
+    void add(Notice notice, int start, int end, int line) {
+        if (size == starts.length) {
+            int capacity = 2 * size;
+            notices = Arrays.copyOf(notices, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        // after the notices starting at the same offset, in order of adding
+        int at = lowerBound(start + 1);
+        int tail = size - at;
+        System.arraycopy(notices, at, notices, at + 1, tail);
+        System.arraycopy(starts, at, starts, at + 1, tail);
+        System.arraycopy(ends, at, ends, at + 1, tail);
+        System.arraycopy(lines, at, lines, at + 1, tail);
+        notices[at] = notice;
+        starts[at] = start;
+        ends[at] = end;
+        lines[at] = line;
+        size++;
+        maxLength = Math.max(maxLength, end - start);
+    }
+
+    /**
+     * {@code length} characters with {@code lineDelta} line breaks were
+     * inserted at {@code offset}.
+     */
+    void inserted(int offset, int length, int lineDelta) {
+        int w = lowerBound(offset - maxLength);
+        for (int r = w; r < size; r++) {
+            int start = starts[r];
+            int end = ends[r];
+            if (start >= offset) {
+                start += length;
+                end += length;
+                lines[r] += lineDelta;
+            } else if (end > offset) {
+                continue;
+            }
+            move(r, w++, start, end);
+        }
+        truncate(w);
+    }
+
+    /**
+     * {@code length} characters with {@code lineDelta} line breaks were
+     * removed from {@code offset}.
+     */
+    void removed(int offset, int length, int lineDelta) {
+        int removedEnd = offset + length;
+        int w = lowerBound(offset - maxLength);
+        for (int r = w; r < size; r++) {
+            int start = starts[r];
+            int end = ends[r];
+            if (start >= removedEnd) {
+                start -= length;
+                end -= length;
+                lines[r] -= lineDelta;
+            } else if (end > offset || start >= offset) {
+                continue;
+            }
+            move(r, w++, start, end);
+        }
+        truncate(w);
+    }
+
+    /**
+     * Drops the notices overlapping {@code [from, to)}, including empty ones
+     * within it.
+     */
+    void removeRange(int from, int to) {
+        int w = lowerBound(from - maxLength);
+        for (int r = w; r < size; r++) {
+            int start = starts[r];
+            int end = ends[r];
+            if (start < to && (end > from || start >= from)) {
+                continue;
+            }
+            move(r, w++, start, end);
+        }
+        truncate(w);
+    }
+
+    /**
+     * Visits the notices touching {@code [from, to]} in order of their start.
+     */
+    void forEach(int from, int to, Visitor visitor) {
+        for (int i = lowerBound(from - maxLength); i < size && starts[i] <= to; i++) {
+            if (ends[i] >= from) {
+                visitor.visit(notices[i], starts[i], ends[i], lines[i]);
+            }
+        }
+    }
+
+    /** The first index whose notice starts at {@code offset} or later */
+    private int lowerBound(int offset) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void move(int from, int to, int start, int end) {
+        notices[to] = notices[from];
+        starts[to] = start;
+        ends[to] = end;
+        lines[to] = lines[from];
+    }
+
+    private void truncate(int newSize) {
+        Arrays.fill(notices, newSize, size, null);
+        size = newSize;
+    }
+
+}
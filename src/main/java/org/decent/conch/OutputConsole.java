@@ -0,0 +1,169 @@
+package org.decent.conch;
+
+import java.awt.Color;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.SimpleAttributeSet;
+
+/**
+ * Read-only output pane that keeps at most a configurable number of lines,
+ * dropping the oldest ones. Text can be appended from any thread; appends
+ * are collected and inserted into the document once per frame, with
+ * consecutive runs of the same style merged into a single insert.
+ * <p>
+ * Text styled with {@link #link(int, AttributeSet)} is clickable and reports
+ * the linked editor position to the {@link #onLinkClicked(IntConsumer) link
+ * listener}.
+ */
+public class OutputConsole extends JTextPane {
+
+    public static final int DEFAULT_LINE_LIMIT = 10_000;
+
+    private static final String POS = "pos";
+    private static final int FRAME_MILLIS = 16;
+
+    private static final class Chunk {
+        final String text;
+        final AttributeSet style;
+
+        Chunk(String text, AttributeSet style) {
+            this.text = text;
+            this.style = style;
+        }
+    }
+
+    private final Object lock = new Object();
+    private ArrayList<Chunk> pending = new ArrayList<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Timer flushTimer = new Timer(FRAME_MILLIS, e -> flush());
+    private volatile int lineLimit = DEFAULT_LINE_LIMIT;
+    private IntConsumer linkListener = pos -> {
+    };
+
+    public OutputConsole() {
+        setEditable(false);
+        setBackground(Color.white);
+        flushTimer.setRepeats(false);
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                var el = getStyledDocument().getCharacterElement(viewToModel2D(e.getPoint()));
+                var pos = (Integer) el.getAttributes().getAttribute(POS);
+                if (pos != null) {
+                    linkListener.accept(pos);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns {@code style} with a link to the editor position {@code pos}.
+     */
+    public static AttributeSet link(int pos, AttributeSet style) {
+        var linkStyle = new SimpleAttributeSet(style);
+        linkStyle.addAttribute(POS, pos);
+        return linkStyle;
+    }
+
+    public void onLinkClicked(IntConsumer listener) {
+        this.linkListener = listener;
+    }
+
+    public int getLineLimit() {
+        return lineLimit;
+    }
+
+    public void setLineLimit(int lineLimit) {
+        if (lineLimit < 1) {
+            throw new IllegalArgumentException("lineLimit: " + lineLimit);
+        }
+        this.lineLimit = lineLimit;
+    }
+
+    /**
+     * Queues {@code text} for display, can be called from any thread.
+     */
+    public void append(String text, AttributeSet style) {
+        synchronized (lock) {
+            pending.add(new Chunk(text, style));
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(flushTimer::restart);
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            pending.clear();
+        }
+        setText("");
+    }
+
+    private void flush() {
+        ArrayList<Chunk> chunks;
+        synchronized (lock) {
+            chunks = pending;
+            pending = new ArrayList<>();
+            flushScheduled.set(false);
+        }
+        if (chunks.isEmpty()) {
+            return;
+        }
+        int limit = lineLimit;
+        var doc = getStyledDocument();
+        try {
+            // no point inserting what the line limit drops right away
+            int first = chunks.size() - 1;
+            int lines = 0;
+            while (first > 0 && lines <= limit) {
+                lines += newlines(chunks.get(first).text);
+                first--;
+            }
+            if (lines > limit) {
+                first++;
+            }
+            var sb = new StringBuilder();
+            AttributeSet style = null;
+            for (int i = first; i < chunks.size(); i++) {
+                var chunk = chunks.get(i);
+                if (sb.length() > 0 && !Objects.equals(style, chunk.style)) {
+                    doc.insertString(doc.getLength(), sb.toString(), style);
+                    sb.setLength(0);
+                }
+                style = chunk.style;
+                sb.append(chunk.text);
+            }
+            doc.insertString(doc.getLength(), sb.toString(), style);
+
+            var root = doc.getDefaultRootElement();
+            int excess = root.getElementCount() - limit;
+            if (excess > 0) {
+                doc.remove(0, root.getElement(excess - 1).getEndOffset());
+            }
+            setCaretPosition(doc.getLength());
+        } catch (BadLocationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int newlines(String text) {
+        int n = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                n++;
+            }
+        }
+        return n;
+    }
+
+}
@@ -0,0 +1,96 @@
+package org.decent.conch;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Toolkit;
+import java.awt.datatransfer.StringSelection;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTree;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * Shows the last {@link StackProfile}: the call tree and the methods with the
+ * most self samples. The collapsed stacks can be copied for flame graph tools.
+ */
+class ProfilePanel extends JPanel {
+
+    /** Nodes with fewer samples are not shown. */
+    private static final double MIN_FRACTION = 0.005;
+    private static final int HOT_METHODS = 30;
+
+    private final JTree tree = new JTree(new DefaultMutableTreeNode("No profile"));
+    private final JLabel title = new JLabel("Snippets running longer than the threshold are profiled here");
+    private StackProfile profile;
+
+    ProfilePanel() {
+        super(new BorderLayout());
+        var copy = new JButton("Copy collapsed stacks");
+        copy.addActionListener(e -> {
+            if (profile != null) {
+                var selection = new StringSelection(profile.collapsed());
+                Toolkit.getDefaultToolkit().getSystemClipboard().setContents(selection, selection);
+            }
+        });
+        var top = new JPanel(new FlowLayout(FlowLayout.LEADING));
+        top.add(title);
+        top.add(copy);
+        add(top, BorderLayout.PAGE_START);
+        add(new JScrollPane(tree));
+    }
+
+    void show(String source, StackProfile profile) {
+        this.profile = profile;
+        int samples = profile.samples();
+        title.setText(samples + " samples of " + firstLine(source));
+
+        var root = new DefaultMutableTreeNode("Profile");
+        var callTree = new DefaultMutableTreeNode("Call tree");
+        for (var child : profile.root().children()) {
+            addNode(callTree, child, samples);
+        }
+        root.add(callTree);
+        var hot = new DefaultMutableTreeNode("Hot methods (self)");
+        var hotMethods = profile.hotMethods();
+        for (int i = 0; i < hotMethods.size() && i < HOT_METHODS; i++) {
+            var e = hotMethods.get(i);
+            hot.add(new DefaultMutableTreeNode(label(e.getValue(), samples, e.getKey())));
+        }
+        root.add(hot);
+        tree.setModel(new DefaultTreeModel(root));
+        // expand the hottest path
+        var node = callTree;
+        while (node.getChildCount() > 0) {
+            node = (DefaultMutableTreeNode) node.getFirstChild();
+        }
+        tree.expandPath(new TreePath(node.getPath()).getParentPath());
+        tree.expandPath(new TreePath(hot.getPath()));
+    }
+
+    private static void addNode(DefaultMutableTreeNode parent, StackProfile.Node node, int samples) {
+        if (node.total < samples * MIN_FRACTION) {
+            return;
+        }
+        var treeNode = new DefaultMutableTreeNode(label(node.total, samples, node.frame.toString()));
+        for (var child : node.children()) {
+            addNode(treeNode, child, samples);
+        }
+        parent.add(treeNode);
+    }
+
+    private static String label(int count, int samples, String what) {
+        return String.format("%5.1f%% %d  %s", 100.0 * count / samples, count, what);
+    }
+
+    private static String firstLine(String source) {
+        var s = source.strip();
+        int nl = s.indexOf('\n');
+        return nl < 0 ? s : s.substring(0, nl) + "\u2026";
+    }
+
+}
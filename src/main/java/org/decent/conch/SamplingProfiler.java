@@ -0,0 +1,83 @@
+package org.decent.conch;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the stack of a snippet thread once it has run for longer than a
+ * threshold. Observes one evaluation, see
+ * {@link ConchExecutionControl#observe(ConchExecutionControl.SnippetObserver)}.
+ */
+final class SamplingProfiler implements ConchExecutionControl.SnippetObserver {
+
+    /** JShell puts the classes wrapping snippets in this package. */
+    private static final String REPL_PACKAGE = "REPL.";
+
+    private static final ScheduledThreadPoolExecutor sampler = new ScheduledThreadPoolExecutor(1, r -> {
+        var t = new Thread(r, "conch-profiler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        // started here, by the evaluating thread, rather than lazily by a
+        // snippet thread, whose thread group it would join
+        sampler.prestartCoreThread();
+    }
+
+    private final long thresholdMillis;
+    private final long intervalMillis;
+    private final StackProfile profile = new StackProfile();
+    private ScheduledFuture<?> sampling;
+    /** Set when the snippet finished, a sample taken meanwhile is dropped */
+    private boolean stopped;
+
+    SamplingProfiler(long thresholdMillis, long intervalMillis) {
+        this.thresholdMillis = thresholdMillis;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public synchronized void started(Thread thread) {
+        sampling = sampler.scheduleAtFixedRate(() -> sample(thread), thresholdMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void finished(Thread thread) {
+        stopped = true;
+        if (sampling != null) {
+            sampling.cancel(false);
+            sampling = null;
+        }
+    }
+
+    /**
+     * The samples taken so far, empty if the snippet finished within the
+     * threshold. Once the snippet finished, the profile no longer changes and
+     * can be read from any thread.
+     */
+    StackProfile profile() {
+        return profile;
+    }
+
+    private void sample(Thread thread) {
+        var stack = thread.getStackTrace();
+        // skip the reflection and thread frames below the snippet code
+        int bottom = stack.length - 1;
+        while (bottom >= 0 && !stack[bottom].getClassName().startsWith(REPL_PACKAGE)) {
+            bottom--;
+        }
+        if (bottom < 0) {
+            bottom = stack.length - 1;
+        }
+        synchronized (this) {
+            // cancelling does not wait for a sample in progress
+            if (bottom >= 0 && !stopped) {
+                profile.add(stack, bottom);
+            }
+        }
+    }
+
+}
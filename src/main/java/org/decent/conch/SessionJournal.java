@@ -0,0 +1,258 @@
+package org.decent.conch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jshell.ImportSnippet;
+import jdk.jshell.JShell;
+import jdk.jshell.MethodSnippet;
+import jdk.jshell.PersistentSnippet;
+import jdk.jshell.Snippet;
+import jdk.jshell.Snippet.Status;
+import jdk.jshell.Snippet.SubKind;
+import jdk.jshell.SnippetEvent;
+import jdk.jshell.TypeDeclSnippet;
+import jdk.jshell.VarSnippet;
+
+/**
+ * The imports and declarations of a session, kept in a file so that a new
+ * session can start where the previous one ended. Only the latest version of
+ * every declaration is kept, keyed like JShell replaces them: by name, and by
+ * parameter types for methods. Statements and expressions are not kept, and
+ * neither are the values of variables, whose initializers run again.
+ * <p>
+ * Restoring skips everything {@link ConchEngine} does per snippet (splitting,
+ * metrics, profiling, listeners) and evaluates imports first, then types and
+ * methods, then variables, so that initializers find what they call. JShell
+ * compiles one snippet per {@link JShell#eval(String)} call, so declarations
+ * can't be batched into one compilation; the restore runs in the background
+ * instead, and the snippets that could not be defined for a missing
+ * dependency are evaluated once more at the end.
+ * <p>
+ * Not thread safe, used from the evaluator thread only. A
+ * {@link #snapshot(JShell) snapshot} is handed to other threads once taken,
+ * and only restored from afterwards.
+ */
+final class SessionJournal {
+
+    private static final int MAGIC = 0x434f4e4a; // CONJ
+    private static final int FORMAT = 1;
+
+    private static final byte IMPORT = 0;
+    private static final byte TYPE_OR_METHOD = 1;
+    private static final byte VARIABLE = 2;
+
+    private static final class Entry {
+        final byte order;
+        final String source;
+
+        Entry(byte order, String source) {
+            this.order = order;
+            this.source = source;
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private boolean dirty;
+
+    private SessionJournal(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * The imports and declarations active in {@code shell}, in the order they
+     * were evaluated, to replay them in another shell. The snapshot is not
+     * kept in a file.
+     */
+    static SessionJournal snapshot(JShell shell) {
+        var journal = new SessionJournal(null);
+        shell.snippets()
+                .filter(s -> shell.status(s).isActive())
+                .forEach(journal::record);
+        return journal;
+    }
+
+    /**
+     * Opens the journal in {@code file}, empty if the file does not exist or
+     * can't be read.
+     */
+    static SessionJournal open(Path file) {
+        var journal = new SessionJournal(file);
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                return journal;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte order = in.readByte();
+                var key = readString(in);
+                journal.entries.put(key, new Entry(order, readString(in)));
+            }
+        } catch (NoSuchFileException e) {
+            // nothing journaled yet
+        } catch (EOFException e) {
+            // truncated, keep what was read
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return journal;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Records the imports and declarations {@code events} defined.
+     */
+    void evaluated(List<SnippetEvent> events) {
+        for (var e : events) {
+            if (e.causeSnippet() != null || !isDefined(e.status())) {
+                continue;
+            }
+            record(e.snippet());
+        }
+    }
+
+    private void record(Snippet snippet) {
+        var key = keyOf(snippet);
+        if (key != null) {
+            // a new version moves to the end, after what it may use now
+            entries.remove(key);
+            entries.put(key, new Entry(orderOf(snippet), snippet.source()));
+            dirty = true;
+        }
+    }
+
+    void clear() {
+        dirty |= !entries.isEmpty();
+        entries.clear();
+    }
+
+    /**
+     * Evaluates the journaled snippets in {@code shell}, returns the number of
+     * them that are defined afterwards.
+     */
+    int restore(JShell shell) {
+        var sources = new ArrayList<String>(entries.size());
+        for (byte order = IMPORT; order <= VARIABLE; order++) {
+            for (var entry : entries.values()) {
+                if (entry.order == order) {
+                    sources.add(entry.source);
+                }
+            }
+        }
+        var retry = new ArrayList<String>();
+        int defined = 0;
+        for (var source : sources) {
+            if (eval(shell, source)) {
+                defined++;
+            } else {
+                retry.add(source);
+            }
+        }
+        for (var source : retry) {
+            if (eval(shell, source)) {
+                defined++;
+            }
+        }
+        return defined;
+    }
+
+    private static boolean eval(JShell shell, String source) {
+        for (var e : shell.eval(source)) {
+            if (e.causeSnippet() == null) {
+                return e.status() == Status.VALID || e.status() == Status.RECOVERABLE_DEFINED;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the journal if it changed, replacing the file atomically.
+     */
+    void flush() {
+        if (!dirty || file == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            var tmp = Files.createTempFile(file.toAbsolutePath().getParent(), "journal", ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeInt(entries.size());
+                for (var entry : entries.entrySet()) {
+                    out.writeByte(entry.getValue().order);
+                    writeString(out, entry.getKey());
+                    writeString(out, entry.getValue().source);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean isDefined(Status status) {
+        return status == Status.VALID || status == Status.RECOVERABLE_DEFINED
+                || status == Status.RECOVERABLE_NOT_DEFINED;
+    }
+
+    /** The key of what {@code snippet} defines, null if it is not journaled */
+    private static String keyOf(Snippet snippet) {
+        if (!(snippet instanceof PersistentSnippet)) {
+            return null;
+        }
+        if (snippet instanceof ImportSnippet) {
+            var imp = (ImportSnippet) snippet;
+            return (imp.isStatic() ? "import static " : "import ") + imp.fullname();
+        }
+        if (snippet instanceof MethodSnippet) {
+            var method = (MethodSnippet) snippet;
+            return "method " + method.name() + "(" + method.parameterTypes() + ")";
+        }
+        if (snippet instanceof TypeDeclSnippet) {
+            return "type " + ((TypeDeclSnippet) snippet).name();
+        }
+        if (snippet instanceof VarSnippet && snippet.subKind() != SubKind.TEMP_VAR_EXPRESSION_SUBKIND) {
+            return "variable " + ((VarSnippet) snippet).name();
+        }
+        return null;
+    }
+
+    private static byte orderOf(Snippet snippet) {
+        if (snippet instanceof ImportSnippet) {
+            return IMPORT;
+        }
+        return snippet instanceof VarSnippet ? VARIABLE : TYPE_OR_METHOD;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+}
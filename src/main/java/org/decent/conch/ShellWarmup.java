@@ -0,0 +1,71 @@
+package org.decent.conch;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import jdk.jshell.JShell;
+import jdk.jshell.Snippet;
+
+/**
+ * Takes the first-use cost of a {@link JShell} off the user's first action:
+ * javac, the analyzer and the execution engine initialize lazily, which
+ * takes seconds. Warming up evaluates a method and a variable using it, asks
+ * the analyzer for completions and documentation, and drops the snippets
+ * again.
+ */
+final class ShellWarmup {
+
+    private static final ExecutorService warmer = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "conch-warmup");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private ShellWarmup() {
+    }
+
+    /**
+     * Warms {@code shell} up on the calling thread, which should be the one
+     * that will evaluate snippets.
+     */
+    static void warmUp(JShell shell) {
+        var analyzer = shell.sourceCodeAnalysis();
+        var method = "String $conchWarmup(java.util.List<Integer> list) { return String.valueOf(list.size()); }";
+        var variable = "String $conchWarmupResult = $conchWarmup(java.util.List.of(1, 2));";
+        var member = "$conchWarmupResult.len";
+        var snippets = new ArrayList<Snippet>();
+        try {
+            analyzer.analyzeCompletion(method);
+            shell.eval(method).forEach(e -> snippets.add(e.snippet()));
+            shell.eval(variable).forEach(e -> snippets.add(e.snippet()));
+            analyzer.completionSuggestions(member, member.length(), new int[1]);
+            analyzer.documentation("String.valueOf(", "String.valueOf(".length(), false);
+        } catch (IllegalStateException e) {
+            // closed meanwhile
+            return;
+        }
+        for (int i = snippets.size() - 1; i >= 0; i--) {
+            try {
+                shell.drop(snippets.get(i));
+            } catch (IllegalStateException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Builds a shell with {@code factory} and warms it up in the background,
+     * ready to replace the current session.
+     */
+    static CompletableFuture<JShell> standby(Supplier<JShell> factory) {
+        return CompletableFuture.supplyAsync(() -> {
+            var shell = factory.get();
+            warmUp(shell);
+            return shell;
+        }, warmer);
+    }
+
+}
@@ -0,0 +1,237 @@
+package org.decent.conch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jdk.jshell.DeclarationSnippet;
+import jdk.jshell.JShell;
+import jdk.jshell.Snippet;
+import jdk.jshell.Snippet.Status;
+
+/**
+ * Micro-benchmark harness for an expression or statement, run inside the
+ * shell. The code is compiled once into a method that runs it in a timed
+ * loop, so that neither compilation nor the eval round trip is measured.
+ * After calibrating the number of operations per batch, the method is run
+ * for warmup batches and then for measurement batches. Only whole batches
+ * are timed, so the percentiles reported are those of the mean ns/op of the
+ * batches, not of single ops. The batch times are read from the shell one
+ * element at a time, as numbers, so no rendering of the array is parsed.
+ * <p>
+ * Every iteration starts with a volatile read, so the JIT cannot hoist the
+ * code out of the loop, and results of expressions are consumed so it cannot
+ * drop the code: primitive results are summed up, references are stored to
+ * a static field, which also keeps allocations from being scalar replaced.
+ */
+final class SnippetBenchmark {
+
+    private static final AtomicInteger ids = new AtomicInteger();
+    private static final Set<String> INTEGRAL = Set.of("byte", "short", "char", "int", "long");
+
+    static final long TARGET_BATCH_NANOS = 50_000_000;
+    static final int WARMUP_BATCHES = 10;
+    static final int MEASUREMENT_BATCHES = 20;
+
+    static final class Result {
+        final String code;
+        final long opsPerBatch;
+        /** Sorted ns/op of every measurement batch. */
+        final double[] nanosPerOp;
+        /** Bytes allocated per op, or -1 if unknown. */
+        final double bytesPerOp;
+
+        Result(String code, long opsPerBatch, double[] nanosPerOp, double bytesPerOp) {
+            this.code = code;
+            this.opsPerBatch = opsPerBatch;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (var n : nanosPerOp) {
+                sum += n;
+            }
+            return sum / nanosPerOp.length;
+        }
+
+        double percentile(double p) {
+            int i = (int) Math.ceil(p / 100 * nanosPerOp.length) - 1;
+            return nanosPerOp[Math.max(0, Math.min(nanosPerOp.length - 1, i))];
+        }
+
+        @Override
+        public String toString() {
+            var sb = new StringBuilder();
+            sb.append(String.format("%,.0f ops/s, mean %.2f ns/op, batch p50 %.2f, p90 %.2f, max %.2f ns/op",
+                    1e9 / mean(), mean(), percentile(50), percentile(90), percentile(100)));
+            if (bytesPerOp >= 0) {
+                sb.append(String.format(", %.1f B/op", bytesPerOp));
+            }
+            sb.append(String.format(" (%d x %,d ops)", nanosPerOp.length, opsPerBatch));
+            return sb.toString();
+        }
+    }
+
+    private final JShell shell;
+
+    SnippetBenchmark(JShell shell) {
+        this.shell = shell;
+    }
+
+    /**
+     * Benchmarks {@code code}. Throws {@link IllegalArgumentException} with the
+     * compiler's messages if it does not compile.
+     */
+    Result run(String code) {
+        var body = code.strip();
+        if (body.endsWith(";")) {
+            body = body.substring(0, body.length() - 1).strip();
+        }
+        int id = ids.incrementAndGet();
+        var holder = "$ConchBench" + id;
+        var method = "$conchBench" + id;
+        var times = "$conchBenchTimes" + id;
+        var time = "$conchBenchTime" + id;
+        var defined = new ArrayList<Snippet>();
+        try {
+            define(defined, "class " + holder + " { static volatile int fence; static Object sink; static long acc; }");
+            define(defined, "long[] " + times + ";");
+            define(defined, "long " + time + ";");
+            define(defined, source(method, holder, body));
+
+            long ops = calibrate(defined, method, times, time, 1);
+            runBatches(defined, method, times, ops, WARMUP_BATCHES);
+            ops = calibrate(defined, method, times, time, ops);
+
+            var recorder = new EvalMetrics.Recorder();
+            ConchExecutionControl.observe(recorder);
+            try {
+                runBatches(defined, method, times, ops, MEASUREMENT_BATCHES);
+            } finally {
+                ConchExecutionControl.observe(null);
+            }
+            var batchNanos = readTimes(defined, times, time, MEASUREMENT_BATCHES);
+            var metrics = recorder.finish(code);
+            var nanosPerOp = new double[batchNanos.length];
+            for (int i = 0; i < batchNanos.length; i++) {
+                nanosPerOp[i] = (double) batchNanos[i] / ops;
+            }
+            Arrays.sort(nanosPerOp);
+            double bytesPerOp = metrics.allocatedBytes() < 0 ? -1
+                    : (double) metrics.allocatedBytes() / (ops * MEASUREMENT_BATCHES);
+            return new Result(code, ops, nanosPerOp, bytesPerOp);
+        } finally {
+            for (var s : defined) {
+                shell.drop(s);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of ops that takes about {@link #TARGET_BATCH_NANOS},
+     * starting the search at {@code ops}.
+     */
+    private long calibrate(List<Snippet> defined, String method, String times, String time, long ops) {
+        while (true) {
+            long nanos = batches(defined, method, times, time, ops, 1)[0];
+            if (nanos >= TARGET_BATCH_NANOS / 4 || ops >= Long.MAX_VALUE / 8) {
+                return Math.max(1, (long) (ops * ((double) TARGET_BATCH_NANOS / Math.max(1, nanos))));
+            }
+            ops *= 4;
+        }
+    }
+
+    private String source(String method, String holder, String body) {
+        var type = shell.sourceCodeAnalysis().analyzeType(body, body.length());
+        String consume;
+        if (type == null || type.equals("void")) {
+            consume = body + ";";
+        } else if (INTEGRAL.contains(type)) {
+            consume = "$acc += (" + body + ");";
+        } else if (type.equals("boolean")) {
+            consume = "if (" + body + ") $acc++;";
+        } else if (type.equals("float") || type.equals("double")) {
+            consume = "$acc += Double.doubleToRawLongBits(" + body + ");";
+        } else {
+            consume = holder + ".sink = (" + body + ");";
+        }
+        return "long[] " + method + "(long $ops, int $batches) {\n" //
+                + "    long[] $times = new long[$batches];\n" //
+                + "    long $acc = 0;\n" //
+                + "    for (int $b = 0; $b < $batches; $b++) {\n" //
+                + "        long $t0 = System.nanoTime();\n" //
+                + "        for (long $i = 0; $i < $ops; $i++) {\n" //
+                + "            int $fence = " + holder + ".fence;\n" //
+                + "            " + consume + "\n" //
+                + "        }\n" //
+                + "        $times[$b] = System.nanoTime() - $t0;\n" //
+                + "    }\n" //
+                + "    " + holder + ".acc += $acc;\n" //
+                + "    " + holder + ".sink = null;\n" //
+                + "    return $times;\n" //
+                + "}";
+    }
+
+    private void define(List<Snippet> defined, String source) {
+        for (var e : shell.eval(source)) {
+            if (e.causeSnippet() == null) {
+                defined.add(e.snippet());
+            }
+            if (e.status() != Status.VALID) {
+                var sb = new StringBuilder("cannot benchmark");
+                shell.diagnostics(e.snippet()).forEach(d -> sb.append(": ").append(d.getMessage(null)));
+                if (e.snippet() instanceof DeclarationSnippet) {
+                    shell.unresolvedDependencies((DeclarationSnippet) e.snippet())
+                            .forEach(name -> sb.append(": cannot find ").append(name));
+                }
+                throw new IllegalArgumentException(sb.toString());
+            }
+        }
+    }
+
+    private long[] batches(List<Snippet> defined, String method, String times, String time, long ops,
+            int batches) {
+        runBatches(defined, method, times, ops, batches);
+        return readTimes(defined, times, time, batches);
+    }
+
+    /** Runs {@code batches} of {@code ops}, their times are left in {@code times} */
+    private void runBatches(List<Snippet> defined, String method, String times, long ops, int batches) {
+        // assignments, so that JShell does not create $n variables
+        eval(defined, times + " = " + method + "(" + ops + "L, " + batches + ")");
+    }
+
+    private long[] readTimes(List<Snippet> defined, String times, String time, int batches) {
+        var ret = new long[batches];
+        for (int i = 0; i < batches; i++) {
+            var value = eval(defined, time + " = " + times + "[" + i + "]");
+            try {
+                ret[i] = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalStateException("unexpected benchmark time " + value);
+            }
+        }
+        return ret;
+    }
+
+    /** Evaluates the expression {@code source}, returns its value. */
+    private String eval(List<Snippet> defined, String source) {
+        for (var e : shell.eval(source)) {
+            if (e.causeSnippet() == null) {
+                defined.add(e.snippet());
+            }
+            if (e.exception() != null) {
+                throw new IllegalStateException(e.exception().getMessage(), e.exception());
+            }
+            if (e.status() == Status.VALID && e.value() != null) {
+                return e.value();
+            }
+        }
+        throw new IllegalStateException("benchmark did not complete");
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.decent.conch;
+
+import java.util.Arrays;
+
+import jdk.jshell.SourceCodeAnalysis;
+
+/**
+ * Start offsets of the complete snippets of a document, as found by
+ * {@link SnippetSplitter}. Boundaries are found lazily, up to the snippet that
+ * is asked for, and survive edits that happen after them: an edit only drops
+ * the boundaries at or behind its offset.
+ * <p>
+ * The boundaries are tied to a document version, a lookup for text of another
+ * version is answered without touching the cache.
+ */
+final class SnippetBoundaries {
+
+    private int[] starts = { 0 };
+    private int size = 1;
+    private int version;
+
+    synchronized void reset(int version) {
+        this.size = 1;
+        this.version = version;
+    }
+
+    synchronized void edited(int offset, int version) {
+        int i = Arrays.binarySearch(starts, 0, size, offset);
+        int keep = i >= 0 ? i : -i - 1;
+        this.size = Math.max(1, keep);
+        this.version = version;
+    }
+
+    /**
+     * Returns the {@code [start, end)} range of the snippet the cursor is in.
+     * A cursor placed right behind a snippet belongs to it. If the snippet is
+     * incomplete it extends to the end of the text.
+     */
+    synchronized int[] enclosing(SourceCodeAnalysis analyzer, String text, int cursor, int version) {
+        if (version != this.version) {
+            // stale request, its result is going to be dropped
+            return new int[] { 0, text.length() };
+        }
+        // the last known start strictly before the cursor
+        int i = Arrays.binarySearch(starts, 0, size, cursor);
+        int idx = (i >= 0 ? i : -i - 1) - 1;
+        if (idx < 0) {
+            idx = 0;
+        }
+        if (idx + 1 < size) {
+            return new int[] { starts[idx], starts[idx + 1] };
+        }
+        return scan(analyzer, text, starts[idx], cursor);
+    }
+
+    private int[] scan(SourceCodeAnalysis analyzer, String text, int start, int cursor) {
+        while (true) {
+            var range = SnippetSplitter.next(analyzer, text, start);
+            if (range == null || !range.isComplete() || range.end >= text.length()) {
+                return new int[] { start, text.length() };
+            }
+            add(range.end);
+            if (cursor <= range.end) {
+                return new int[] { start, range.end };
+            }
+            start = range.end;
+        }
+    }
+
+    private void add(int start) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+        }
+        starts[size++] = start;
+    }
+
+}
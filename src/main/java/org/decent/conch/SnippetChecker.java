@@ -0,0 +1,522 @@
+package org.decent.conch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+
+import org.fife.ui.rsyntaxtextarea.RSyntaxDocument;
+import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
+import org.fife.ui.rsyntaxtextarea.parser.AbstractParser;
+import org.fife.ui.rsyntaxtextarea.parser.DefaultParseResult;
+import org.fife.ui.rsyntaxtextarea.parser.ParseResult;
+
+import jdk.jshell.DeclarationSnippet;
+import jdk.jshell.JShell;
+import jdk.jshell.PersistentSnippet;
+import jdk.jshell.Snippet;
+import jdk.jshell.Snippet.Kind;
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControlProvider;
+import jdk.jshell.spi.ExecutionEnv;
+
+/**
+ * Compiles the snippets touched by edits as the user types, without running
+ * them, and publishes their diagnostics to the {@link NoticeParser}. Runs on
+ * the text area's parser delay: the range edited since the last check is
+ * extended to whole snippets, and every snippet whose result is not cached is
+ * evaluated wrapped into a method, or a class for method and type
+ * declarations, which is dropped again.
+ * <p>
+ * The wrappers are never evaluated in the session itself, but in an
+ * analysis shell of the checker's own, which loads and runs nothing, and into
+ * which the imports and declarations of the session are replayed after every
+ * run. So checks neither load classes into the session nor take up its
+ * snippet ids, and they run on a thread of their own rather than the
+ * evaluator thread. A newer check cancels the snippets an older one has not
+ * reached yet. Class path added to the session outside of
+ * {@link #addToClasspath(String)} is not seen by the analysis shell, what
+ * uses it is reported as unresolved.
+ * <p>
+ * A name that does not resolve is only reported if it does not appear
+ * elsewhere in the buffer, where it may be declared by code not run yet.
+ */
+final class SnippetChecker extends AbstractParser {
+
+    private static final String METHOD_WRAPPER = "void $conchCheck() {\n";
+    private static final String CLASS_WRAPPER = "class $ConchCheck {\n";
+    private static final String WRAPPER_END = "\n}";
+    /** Expressions are fine as snippets, not as statements in the wrapper. */
+    private static final Set<String> IGNORED = Set.of("compiler.err.not.stmt");
+    /** Top-level modifiers JShell ignores, which are errors on locals. */
+    private static final Set<String> TOP_LEVEL_MODIFIERS = Set.of("public", "protected", "private", "static",
+            "transient", "volatile");
+    private static final int CACHE_SIZE = 1024;
+    /** Checks after which the analysis shell, which keeps every snippet, is built anew */
+    private static final int RECYCLE_AFTER = 1000;
+
+    private final RSyntaxTextArea textArea;
+    private final NoticeParser notices;
+    private final Supplier<JShell> shell;
+    private final ExecutorService checker = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "conch-check");
+        t.setDaemon(true);
+        return t;
+    });
+    private final SnippetBoundaries boundaries = new SnippetBoundaries();
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * Results relative to the snippet, reused while the session is unchanged.
+     * Used from the checker thread only.
+     */
+    private final Map<String, Checked> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Checked> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private volatile int sessionEpoch;
+    /** Bumped when a run is queued and when it ends, see {@link #evaluating()} */
+    private final AtomicInteger runEpoch = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile Declarations declarations;
+    private final List<String> classpath = new CopyOnWriteArrayList<>();
+
+    // checker thread only
+    private JShell analysis;
+    private JShell analyzed;
+    private int checks;
+    private int classpathAdded;
+
+    // EDT confined
+    private int docVersion;
+    private int dirtyFrom = -1;
+    private int dirtyTo = -1;
+
+    private static final class Checked {
+        final int epoch;
+        final List<Notice> diagnostics = new ArrayList<>();
+        final List<Notice> unresolved = new ArrayList<>();
+
+        Checked(int epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    /** The active imports and declarations of a session, in evaluation order */
+    private static final class Declarations {
+        final JShell session;
+        final List<String> sources;
+
+        Declarations(JShell session, List<String> sources) {
+            this.session = session;
+            this.sources = sources;
+        }
+    }
+
+    /**
+     * Defines the snippets of the analysis shell without loading or running
+     * anything.
+     */
+    private static final class NoExecution implements ExecutionControl {
+
+        @Override
+        public void load(ClassBytecodes[] cbcs) {
+        }
+
+        @Override
+        public void redefine(ClassBytecodes[] cbcs) {
+        }
+
+        @Override
+        public String invoke(String className, String methodName) {
+            return "";
+        }
+
+        @Override
+        public String varValue(String className, String varName) {
+            return "";
+        }
+
+        @Override
+        public void addToClasspath(String path) {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public Object extensionCommand(String command, Object arg) throws NotImplementedException {
+            throw new NotImplementedException(command);
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    private static final ExecutionControlProvider NO_EXECUTION = new ExecutionControlProvider() {
+
+        @Override
+        public String name() {
+            return "conch-check";
+        }
+
+        @Override
+        public ExecutionControl generate(ExecutionEnv env, Map<String, String> parameters) {
+            return new NoExecution();
+        }
+
+    };
+
+    /**
+     * Checks the snippets of the session {@code shell} supplies, see
+     * {@link #sessionChanged()}.
+     */
+    SnippetChecker(RSyntaxTextArea textArea, NoticeParser notices, Supplier<JShell> shell) {
+        this.textArea = textArea;
+        this.notices = notices;
+        this.shell = shell;
+        declarations = new Declarations(shell.get(), List.of());
+        boundaries.reset(docVersion);
+        textArea.getDocument().addDocumentListener(Documents.onDocumentChange(this::edited));
+    }
+
+    /**
+     * Adds {@code path} to the class path of the analysis shell, as it was
+     * added to the session.
+     */
+    void addToClasspath(String path) {
+        classpath.add(path);
+    }
+
+    /**
+     * A run was queued. Until it ends with {@link #sessionChanged()}, check
+     * results are discarded rather than published, as they would remove the
+     * notices the run reports; their range is checked again with the next
+     * edit.
+     */
+    void evaluating() {
+        running.incrementAndGet();
+        runEpoch.incrementAndGet();
+    }
+
+    /**
+     * The session changed by a run queued with {@link #evaluating()}: its
+     * declarations are replayed into the analysis shell, and cached results
+     * are checked again when their snippets are edited next. Must be called
+     * on the thread evaluating the session's snippets.
+     */
+    void sessionChanged() {
+        var sh = shell.get();
+        var sources = sh.snippets()
+                .filter(s -> s instanceof PersistentSnippet && sh.status(s).isActive())
+                .map(Snippet::source)
+                .collect(Collectors.toList());
+        declarations = new Declarations(sh, sources);
+        sessionEpoch++;
+        runEpoch.incrementAndGet();
+        running.decrementAndGet();
+    }
+
+    /**
+     * Stops checking and closes the analysis shell.
+     */
+    void dispose() {
+        generation.incrementAndGet();
+        checker.execute(() -> {
+            if (analysis != null) {
+                analysis.close();
+                analysis = null;
+            }
+        });
+        checker.shutdown();
+    }
+
+    private void edited(DocumentEvent e) {
+        if (e.getType() == DocumentEvent.EventType.CHANGE) {
+            return;
+        }
+        docVersion++;
+        boundaries.edited(e.getOffset(), docVersion);
+        int offset = e.getOffset();
+        int length = e.getLength();
+        if (e.getType() == DocumentEvent.EventType.INSERT) {
+            if (dirtyFrom >= 0) {
+                dirtyFrom = dirtyFrom >= offset ? dirtyFrom + length : dirtyFrom;
+                dirtyTo = dirtyTo >= offset ? dirtyTo + length : dirtyTo;
+            }
+            markDirty(offset, offset + length);
+        } else {
+            if (dirtyFrom >= 0) {
+                dirtyFrom = removed(dirtyFrom, offset, length);
+                dirtyTo = removed(dirtyTo, offset, length);
+            }
+            markDirty(offset, offset);
+        }
+    }
+
+    private static int removed(int pos, int offset, int length) {
+        if (pos <= offset) {
+            return pos;
+        }
+        return pos >= offset + length ? pos - length : offset;
+    }
+
+    private void markDirty(int from, int to) {
+        dirtyFrom = dirtyFrom < 0 ? from : Math.min(dirtyFrom, from);
+        dirtyTo = Math.max(dirtyTo, to);
+    }
+
+    @Override
+    public ParseResult parse(RSyntaxDocument doc, String style) {
+        if (dirtyFrom >= 0 && !checker.isShutdown()) {
+            var text = ConchCompletionProvider.CompInfo.textOf(doc);
+            int from = Math.min(dirtyFrom, text.length());
+            int to = Math.min(dirtyTo, text.length());
+            int version = docVersion;
+            int gen = generation.incrementAndGet();
+            checker.execute(() -> check(text, from, to, version, gen));
+        }
+        return new DefaultParseResult(this);
+    }
+
+    /**
+     * Checks the snippets overlapping {@code [from, to]}, on the checker
+     * thread.
+     */
+    private void check(String text, int from, int to, int version, int gen) {
+        if (gen != generation.get()) {
+            return;
+        }
+        int run = runEpoch.get();
+        var sh = analysisShell();
+        var analyzer = sh.sourceCodeAnalysis();
+        int[] first = boundaries.enclosing(analyzer, text, from, version);
+        int regionStart = first[0];
+        int regionEnd = regionStart;
+        var found = new ArrayList<Notice>();
+        var range = SnippetSplitter.next(analyzer, text, regionStart);
+        while (range != null && range.start <= to) {
+            if (gen != generation.get()) {
+                return;
+            }
+            regionEnd = range.end;
+            if (range.isComplete()) {
+                for (var n : check(sh, text, range)) {
+                    found.add(Notice.wrap(range.start, n));
+                }
+            }
+            range = SnippetSplitter.next(analyzer, text, range.end);
+        }
+        if (range == null) {
+            regionEnd = text.length();
+        }
+        int start = regionStart;
+        int end = regionEnd;
+        SwingUtilities.invokeLater(() -> {
+            if (version != docVersion) {
+                // edited meanwhile, the dirty range still covers this one
+                return;
+            }
+            if (run != runEpoch.get() || running.get() > 0) {
+                // a run may have reported notices in the range meanwhile
+                return;
+            }
+            dirtyFrom = -1;
+            dirtyTo = -1;
+            notices.removeRange(start, Math.max(end, start + 1));
+            found.forEach(notices::add);
+            textArea.forceReparsing(notices);
+        });
+    }
+
+    /**
+     * The analysis shell, with the declarations of the session as of its
+     * last change.
+     */
+    private JShell analysisShell() {
+        var current = declarations;
+        if (analysis == null || analyzed != current.session || checks >= RECYCLE_AFTER) {
+            if (analysis != null) {
+                analysis.close();
+            }
+            analysis = JShell.builder().executionEngine(NO_EXECUTION, Map.of()).build();
+            analyzed = current.session;
+            checks = 0;
+            classpathAdded = 0;
+        }
+        var sh = analysis;
+        for (; classpathAdded < classpath.size(); classpathAdded++) {
+            sh.addToClasspath(classpath.get(classpathAdded));
+        }
+        var sources = Set.copyOf(current.sources);
+        var defined = new HashSet<String>();
+        sh.snippets()
+                .filter(s -> sh.status(s).isActive())
+                .collect(Collectors.toList())
+                .forEach(s -> {
+                    if (sources.contains(s.source())) {
+                        defined.add(s.source());
+                    } else if (s instanceof PersistentSnippet) {
+                        // dropped from the session, or replaced by a declaration of the same name
+                        sh.drop(s);
+                    }
+                });
+        for (var source : current.sources) {
+            if (!defined.contains(source)) {
+                sh.eval(source);
+            }
+        }
+        return sh;
+    }
+
+    private List<Notice> check(JShell sh, String text, SnippetSplitter.Range range) {
+        var source = range.source;
+        int epoch = sessionEpoch;
+        var checked = cache.get(source);
+        if (checked == null || checked.epoch != epoch) {
+            checked = compile(sh, source, epoch);
+            cache.put(source, checked);
+            checks++;
+        }
+        if (checked.unresolved.isEmpty()) {
+            return checked.diagnostics;
+        }
+        // unresolved names may be declared by code that was not run yet
+        var ret = new ArrayList<>(checked.diagnostics);
+        for (var n : checked.unresolved) {
+            if (!appearsOutside(text, source.substring(n.start(), n.end()), range)) {
+                ret.add(n);
+            }
+        }
+        return ret;
+    }
+
+    private static boolean appearsOutside(String text, String name, SnippetSplitter.Range range) {
+        for (int i = text.indexOf(name); i >= 0; i = text.indexOf(name, i + 1)) {
+            if ((i < range.start || i >= range.end) && isWord(text, i, name.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWord(String text, int start, int length) {
+        int end = start + length;
+        return (start == 0 || !Character.isJavaIdentifierPart(text.charAt(start - 1)))
+                && (end == text.length() || !Character.isJavaIdentifierPart(text.charAt(end)));
+    }
+
+    /**
+     * Compiles {@code source} inside a wrapper and drops it again. The
+     * diagnostics, and warnings on the unresolved names, are relative to
+     * {@code source}.
+     */
+    private static Checked compile(JShell sh, String source, int epoch) {
+        var ret = new Checked(epoch);
+        var analyzer = sh.sourceCodeAnalysis();
+        var snippets = analyzer.sourceToSnippets(source);
+        if (snippets.isEmpty() || snippets.get(0).kind() == Kind.IMPORT) {
+            return ret;
+        }
+        var kind = snippets.get(0).kind();
+        var classLevel = kind == Kind.METHOD || kind == Kind.TYPE_DECL;
+        var prefix = classLevel ? CLASS_WRAPPER : METHOD_WRAPPER;
+        var wrapped = classLevel ? source : blankTopLevelModifiers(source);
+        var tail = source.strip();
+        if (!classLevel && !tail.endsWith(";") && !tail.endsWith("}")) {
+            // a snippet, not a statement, may end without a semicolon
+            wrapped += ";";
+        }
+        for (var e : sh.eval(prefix + wrapped + WRAPPER_END)) {
+            if (e.causeSnippet() != null) {
+                continue;
+            }
+            var snippet = e.snippet();
+            sh.diagnostics(snippet).forEach(d -> {
+                if (IGNORED.contains(d.getCode())) {
+                    return;
+                }
+                int start = clamp(d.getStartPosition() - prefix.length(), source.length());
+                int end = Math.max(start, clamp(d.getEndPosition() - prefix.length(), source.length()));
+                var msg = d.getMessage(null);
+                ret.diagnostics.add(d.isError() ? Notice.error(start, end, msg) : Notice.info(start, end, msg));
+            });
+            if (snippet instanceof DeclarationSnippet) {
+                sh.unresolvedDependencies((DeclarationSnippet) snippet).forEach(dep -> {
+                    // "variable x", "class X", "method m(int)"
+                    var name = dep.substring(dep.indexOf(' ') + 1);
+                    int paren = name.indexOf('(');
+                    name = paren < 0 ? name : name.substring(0, paren);
+                    int at = wordIndex(source, name);
+                    if (at >= 0) {
+                        ret.unresolved.add(Notice.info(at, at + name.length(), "cannot find symbol: " + dep));
+                    }
+                });
+            }
+            if (e.status().isActive()) {
+                sh.drop(snippet);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * {@code source} with its leading modifiers that are only valid on
+     * fields replaced by spaces, so that positions do not change.
+     */
+    private static String blankTopLevelModifiers(String source) {
+        var chars = source.toCharArray();
+        int i = 0;
+        while (true) {
+            while (i < chars.length && Character.isWhitespace(chars[i])) {
+                i++;
+            }
+            int start = i;
+            if (i < chars.length && chars[i] == '@') {
+                i++;
+            }
+            while (i < chars.length && Character.isJavaIdentifierPart(chars[i])) {
+                i++;
+            }
+            var word = source.substring(start, i);
+            if (TOP_LEVEL_MODIFIERS.contains(word)) {
+                Arrays.fill(chars, start, i, ' ');
+            } else if (!word.equals("final") && !(word.startsWith("@") && word.length() > 1)) {
+                return new String(chars);
+            }
+        }
+    }
+
+    private static int wordIndex(String source, String name) {
+        for (int i = source.indexOf(name); i >= 0; i = source.indexOf(name, i + 1)) {
+            if (isWord(source, i, name.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int clamp(long pos, int length) {
+        return (int) Math.max(0, Math.min(pos, length));
+    }
+
+}
@@ -0,0 +1,271 @@
+package org.decent.conch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jshell.SourceCodeAnalysis;
+import jdk.jshell.SourceCodeAnalysis.Completeness;
+
+/**
+ * Splits source code into the snippets JShell evaluates one by one.
+ * <p>
+ * Calling {@link SourceCodeAnalysis#analyzeCompletion(String)} on the whole
+ * remaining text for every snippet rescans the rest of the buffer each time.
+ * Instead, a lexical pass finds the places where a snippet may end (a
+ * {@code ;} or a closing {@code }} at nesting depth 0, unless what follows
+ * may continue the statement) and only the text up to such a candidate is
+ * handed to the analyzer, so every character is analyzed a bounded number of
+ * times.
+ */
+final class SnippetSplitter {
+
+    private SnippetSplitter() {
+    }
+
+    static final class Range {
+
+        /** Start offset, including leading whitespace and comments. */
+        final int start;
+        /** End offset, exclusive. */
+        final int end;
+        /** The snippet source as it should be evaluated. */
+        final String source;
+        final Completeness completeness;
+
+        Range(int start, int end, String source, Completeness completeness) {
+            this.start = start;
+            this.end = end;
+            this.source = source;
+            this.completeness = completeness;
+        }
+
+        boolean isComplete() {
+            return completeness.isComplete();
+        }
+
+    }
+
+    static List<Range> split(SourceCodeAnalysis analyzer, String text) {
+        var ranges = new ArrayList<Range>();
+        int pos = 0;
+        Range range;
+        while ((range = next(analyzer, text, pos)) != null) {
+            ranges.add(range);
+            if (!range.isComplete()) {
+                break;
+            }
+            pos = range.end;
+        }
+        return ranges;
+    }
+
+    /**
+     * Returns the snippet starting at {@code from}, or {@code null} if only
+     * whitespace and comments are left. An incomplete snippet extends to the
+     * end of the text.
+     */
+    static Range next(SourceCodeAnalysis analyzer, String text, int from) {
+        int candidate = from;
+        while (true) {
+            candidate = nextCandidate(text, candidate);
+            var chunk = text.substring(from, candidate);
+            var c = analyzer.analyzeCompletion(chunk);
+            var completeness = c.completeness();
+            if (completeness == Completeness.EMPTY) {
+                if (candidate == text.length()) {
+                    return null;
+                }
+                continue;
+            }
+            if (completeness.isComplete()) {
+                int end = candidate - c.remaining().length();
+                if (end > from) {
+                    return new Range(from, end, c.source(), completeness);
+                }
+            }
+            if (candidate == text.length()) {
+                return new Range(from, candidate, chunk, completeness);
+            }
+        }
+    }
+
+    /**
+     * Returns the offset right behind the next possible snippet end after
+     * {@code from}, or the text length.
+     */
+    static int nextCandidate(String text, int from) {
+        int len = text.length();
+        int depth = 0;
+        int i = from;
+        while (i < len) {
+            char ch = text.charAt(i);
+            switch (ch) {
+            case '/':
+                if (i + 1 < len && text.charAt(i + 1) == '/') {
+                    i = skipLineComment(text, i);
+                    continue;
+                }
+                if (i + 1 < len && text.charAt(i + 1) == '*') {
+                    i = skipBlockComment(text, i);
+                    continue;
+                }
+                break;
+            case '"':
+                i = text.startsWith("\"\"\"", i) ? skipTextBlock(text, i) : skipQuoted(text, i, '"');
+                continue;
+            case '\'':
+                i = skipQuoted(text, i, '\'');
+                continue;
+            case '(':
+            case '[':
+            case '{':
+                depth++;
+                break;
+            case ')':
+            case ']':
+                depth = Math.max(0, depth - 1);
+                break;
+            case '}':
+                depth = Math.max(0, depth - 1);
+                if (depth == 0 && !continues(text, i + 1)) {
+                    return i + 1;
+                }
+                break;
+            case ';':
+                if (depth == 0 && !continuesStatement(text, i + 1)) {
+                    return i + 1;
+                }
+                break;
+            default:
+                break;
+            }
+            i++;
+        }
+        return len;
+    }
+
+    /**
+     * Whether the code after a closing brace continues the same statement,
+     * like {@code else}, {@code catch} or the {@code ;} of an initializer.
+     */
+    private static boolean continues(String text, int from) {
+        int i = skipWhitespaceAndComments(text, from);
+        if (i >= text.length()) {
+            return false;
+        }
+        char ch = text.charAt(i);
+        if (!Character.isJavaIdentifierStart(ch)) {
+            return ch != '@' && ch != '{' && ch != '}';
+        }
+        int end = i + 1;
+        while (end < text.length() && Character.isJavaIdentifierPart(text.charAt(end))) {
+            end++;
+        }
+        switch (text.substring(i, end)) {
+        case "else":
+        case "catch":
+        case "finally":
+        case "while":
+        case "instanceof":
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Whether the code after a {@code ;} may continue the same statement, like
+     * the {@code else} of an {@code if} without braces or the {@code while} of
+     * a {@code do} loop. The candidate then extends past it and the analyzer
+     * tells where the snippet ends.
+     */
+    private static boolean continuesStatement(String text, int from) {
+        int i = skipWhitespaceAndComments(text, from);
+        int end = i;
+        while (end < text.length() && Character.isJavaIdentifierPart(text.charAt(end))) {
+            end++;
+        }
+        var word = text.substring(i, end);
+        return word.equals("else") || word.equals("while");
+    }
+
+    /**
+     * Whether enough text follows {@code from} to tell if a snippet ending
+     * there continues, that is a whole token: text read so far may end in the
+     * middle of an {@code else}.
+     */
+    static boolean isFollowed(String text, int from) {
+        int i = skipWhitespaceAndComments(text, from);
+        if (i >= text.length()) {
+            return false;
+        }
+        if (!Character.isJavaIdentifierStart(text.charAt(i))) {
+            return true;
+        }
+        while (i < text.length() && Character.isJavaIdentifierPart(text.charAt(i))) {
+            i++;
+        }
+        return i < text.length();
+    }
+
+    private static int skipWhitespaceAndComments(String text, int i) {
+        int len = text.length();
+        while (i < len) {
+            char ch = text.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                i++;
+            } else if (text.startsWith("//", i)) {
+                i = skipLineComment(text, i);
+            } else if (text.startsWith("/*", i)) {
+                i = skipBlockComment(text, i);
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static int skipLineComment(String text, int i) {
+        int nl = text.indexOf('\n', i);
+        return nl < 0 ? text.length() : nl + 1;
+    }
+
+    private static int skipBlockComment(String text, int i) {
+        int end = text.indexOf("*/", i + 2);
+        return end < 0 ? text.length() : end + 2;
+    }
+
+    private static int skipTextBlock(String text, int i) {
+        int j = i + 3;
+        while (j < text.length()) {
+            char ch = text.charAt(j);
+            if (ch == '\\') {
+                j += 2;
+            } else if (text.startsWith("\"\"\"", j)) {
+                return j + 3;
+            } else {
+                j++;
+            }
+        }
+        return text.length();
+    }
+
+    private static int skipQuoted(String text, int i, char quote) {
+        int j = i + 1;
+        while (j < text.length()) {
+            char ch = text.charAt(j);
+            if (ch == '\\') {
+                j += 2;
+            } else if (ch == quote) {
+                return j + 1;
+            } else if (ch == '\n') {
+                // unterminated literal, let the analyzer report it
+                return j;
+            } else {
+                j++;
+            }
+        }
+        return text.length();
+    }
+
+}
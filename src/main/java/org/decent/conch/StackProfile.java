@@ -0,0 +1,116 @@
+package org.decent.conch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stack samples aggregated into a call tree. Adding a sample walks the tree
+ * from the outermost frame and only allocates for frames not seen before.
+ */
+final class StackProfile {
+
+    static final class Node {
+        final StackTraceElement frame;
+        /** Samples that went through this node. */
+        int total;
+        /** Samples that ended in this node. */
+        int self;
+        final Map<StackTraceElement, Node> children = new HashMap<>();
+
+        Node(StackTraceElement frame) {
+            this.frame = frame;
+        }
+
+        /** Children, the hottest first. */
+        List<Node> children() {
+            var list = new ArrayList<>(children.values());
+            list.sort((a, b) -> Integer.compare(b.total, a.total));
+            return list;
+        }
+    }
+
+    private final Node root = new Node(null);
+
+    /**
+     * Adds a sample, {@code stack} as returned by
+     * {@link Thread#getStackTrace()}. Frames outer to {@code bottom} are
+     * ignored.
+     */
+    synchronized void add(StackTraceElement[] stack, int bottom) {
+        var node = root;
+        node.total++;
+        for (int i = bottom; i >= 0; i--) {
+            var frame = stack[i];
+            var child = node.children.get(frame);
+            if (child == null) {
+                child = new Node(frame);
+                node.children.put(frame, child);
+            }
+            child.total++;
+            node = child;
+        }
+        node.self++;
+    }
+
+    synchronized int samples() {
+        return root.total;
+    }
+
+    Node root() {
+        return root;
+    }
+
+    /**
+     * Self samples per method, the hottest first.
+     */
+    synchronized List<Map.Entry<String, Integer>> hotMethods() {
+        var counts = new HashMap<String, Integer>();
+        collectSelf(root, counts);
+        var list = new ArrayList<>(counts.entrySet());
+        list.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        return list;
+    }
+
+    private static void collectSelf(Node node, Map<String, Integer> counts) {
+        if (node.frame != null && node.self > 0) {
+            counts.merge(method(node.frame), node.self, Integer::sum);
+        }
+        for (var child : node.children.values()) {
+            collectSelf(child, counts);
+        }
+    }
+
+    /**
+     * The profile in the collapsed stack format used by flame graph tools,
+     * one {@code frame;frame;frame count} line per distinct stack.
+     */
+    synchronized String collapsed() {
+        var sb = new StringBuilder();
+        for (var child : root.children.values()) {
+            collapse(child, new StringBuilder(), sb);
+        }
+        return sb.toString();
+    }
+
+    private static void collapse(Node node, StringBuilder path, StringBuilder out) {
+        int len = path.length();
+        if (len > 0) {
+            path.append(';');
+        }
+        path.append(method(node.frame));
+        if (node.self > 0) {
+            out.append(path).append(' ').append(node.self).append('\n');
+        }
+        for (var child : node.children.values()) {
+            collapse(child, path, out);
+        }
+        path.setLength(len);
+    }
+
+    static String method(StackTraceElement frame) {
+        return frame.getClassName() + '.' + frame.getMethodName();
+    }
+
+}
@@ -0,0 +1,97 @@
+package org.decent.conch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Routes {@link System#out} and {@link System#err} per thread.
+ * <p>
+ * With in-process execution, snippets print to the host's standard streams
+ * rather than to the streams given to the JShell builder. Once installed,
+ * the system streams forward the output of threads that asked for a
+ * {@link #redirectCurrentThread redirect} to their own streams. Threads they
+ * create do not inherit the redirect, as they may outlive it, like the threads
+ * of a shared pool: {@link ConchExecutionControl} passes it on to the snippet
+ * thread for as long as the snippet runs. All other threads keep writing to
+ * the original streams.
+ */
+final class SystemStreams {
+
+    private static final ThreadLocal<OutputStream[]> TARGETS = new ThreadLocal<>();
+    private static boolean installed;
+
+    private SystemStreams() {
+    }
+
+    static synchronized void install() {
+        if (installed) {
+            return;
+        }
+        System.setOut(new PrintStream(new Router(System.out, 0), true));
+        System.setErr(new PrintStream(new Router(System.err, 1), true));
+        installed = true;
+    }
+
+    /**
+     * Redirects the standard streams of the current thread.
+     */
+    static void redirectCurrentThread(OutputStream out, OutputStream err) {
+        install();
+        TARGETS.set(new OutputStream[] { out, err });
+    }
+
+    /**
+     * The redirect of the current thread, {@code null} if it has none, for
+     * {@link #redirectCurrentThread(OutputStream[])} on a thread working on
+     * its behalf.
+     */
+    static OutputStream[] redirectOfCurrentThread() {
+        return TARGETS.get();
+    }
+
+    /**
+     * Redirects the current thread like the thread {@code redirect} was taken
+     * from, {@code null} ends the redirect.
+     */
+    static void redirectCurrentThread(OutputStream[] redirect) {
+        if (redirect == null) {
+            TARGETS.remove();
+        } else {
+            TARGETS.set(redirect);
+        }
+    }
+
+    private static final class Router extends OutputStream {
+
+        private final PrintStream original;
+        private final int index;
+
+        Router(PrintStream original, int index) {
+            this.original = original;
+            this.index = index;
+        }
+
+        private OutputStream target() {
+            var targets = TARGETS.get();
+            return targets == null ? original : targets[index];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+
+    }
+
+}
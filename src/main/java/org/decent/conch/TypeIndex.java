@@ -0,0 +1,433 @@
+package org.decent.conch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.module.ModuleFinder;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+
+/**
+ * Top level types of the class path and of the packages the JDK modules
+ * export, searchable by simple name prefix.
+ * <p>
+ * The index is a file laid out for memory mapping: a header, an offset per
+ * type sorted by the UTF-8 bytes of the simple name, then the entries as
+ * {@code SimpleName\0package\0}. Lookups binary search the mapped file
+ * without decoding it. The file is reused as long as the fingerprint of the
+ * JDK and the class path entries matches, otherwise it is rebuilt in the
+ * background and {@link #find(String, int)} answers nothing until then.
+ * <p>
+ * Snippets are compiled against the class path of this JVM, whatever the
+ * execution engine: JShell compiles in-process, and agent JVMs are started
+ * with the same class path. What is added to a session later gets an index of
+ * its own, see {@link #of(List)}. Entries given to JShell as compiler options
+ * or added with {@link jdk.jshell.JShell#addToClasspath(String)} directly are
+ * not indexed, and neither are classes a host loads through class loaders of
+ * its own, which snippets can't resolve either.
+ */
+final class TypeIndex {
+
+    private static final int MAGIC = 0x434f4e43; // "CONC"
+    private static final int FORMAT = 1;
+    private static final int HEADER = 20; // magic, format, fingerprint, count
+    private static final int ACC_PUBLIC = 0x0001;
+
+    private static TypeIndex shared;
+
+    private final Path file;
+    private final List<Path> classpath;
+    private final boolean jdk;
+    private volatile ByteBuffer data;
+    private volatile int count;
+
+    private TypeIndex(Path file, List<Path> classpath, boolean jdk) {
+        this.file = file;
+        this.classpath = classpath;
+        this.jdk = jdk;
+    }
+
+    /**
+     * The index of the JDK and the class path of this JVM in
+     * {@link #defaultFile()}, opened on first use.
+     */
+    static synchronized TypeIndex shared() {
+        if (shared == null) {
+            shared = open(defaultFile(), systemClasspath());
+        }
+        return shared;
+    }
+
+    /** {@code ~/.conch/types.idx} */
+    static Path defaultFile() {
+        return Path.of(System.getProperty("user.home"), ".conch", "types.idx");
+    }
+
+    /**
+     * The index of class path entries added to a session, without the JDK, in
+     * a file of its own next to {@link #defaultFile()}.
+     */
+    static TypeIndex of(List<Path> entries) {
+        var key = entries.stream()
+                .map(p -> p.toAbsolutePath().toString())
+                .collect(Collectors.joining(File.pathSeparator));
+        var file = defaultFile().resolveSibling("types-" + Integer.toHexString(key.hashCode()) + ".idx");
+        return open(file, entries, false);
+    }
+
+    /** The class path of this JVM, which is what snippets are compiled against. */
+    static List<Path> systemClasspath() {
+        var cp = System.getProperty("java.class.path", "");
+        return Arrays.stream(cp.split(File.pathSeparator))
+                .filter(s -> !s.isEmpty())
+                .map(Path::of)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Opens the index in {@code file}, loading or rebuilding it on a
+     * background thread.
+     */
+    static TypeIndex open(Path file, List<Path> classpath) {
+        return open(file, classpath, true);
+    }
+
+    private static TypeIndex open(Path file, List<Path> classpath, boolean jdk) {
+        var index = new TypeIndex(file, List.copyOf(classpath), jdk);
+        var t = new Thread(index::load, "conch-index");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+        return index;
+    }
+
+    boolean isReady() {
+        return data != null;
+    }
+
+    /**
+     * Fully qualified names of at most {@code max} types whose simple name
+     * starts with {@code prefix}, ordered by simple name.
+     */
+    List<String> find(String prefix, int max) {
+        var buf = data;
+        if (buf == null || prefix.isEmpty()) {
+            return List.of();
+        }
+        int n = count;
+        var p = prefix.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(buf, buf.getInt(HEADER + 4 * mid), p) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        var ret = new ArrayList<String>();
+        for (int i = lo; i < n && ret.size() < max; i++) {
+            int offset = buf.getInt(HEADER + 4 * i);
+            if (compare(buf, offset, p) != 0) {
+                break;
+            }
+            int nameEnd = terminator(buf, offset);
+            var name = decode(buf, offset, nameEnd);
+            var pkg = decode(buf, nameEnd + 1, terminator(buf, nameEnd + 1));
+            ret.add(pkg.isEmpty() ? name : pkg + '.' + name);
+        }
+        return ret;
+    }
+
+    /**
+     * Compares the simple name at {@code offset}, cut to the prefix length,
+     * with the prefix: zero if the name starts with it.
+     */
+    private static int compare(ByteBuffer buf, int offset, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            int b = buf.get(offset + i) & 0xff;
+            if (b == 0) {
+                return -1;
+            }
+            int diff = b - (prefix[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private static int terminator(ByteBuffer buf, int offset) {
+        while (buf.get(offset) != 0) {
+            offset++;
+        }
+        return offset;
+    }
+
+    private static String decode(ByteBuffer buf, int from, int to) {
+        var bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void load() {
+        long fingerprint = fingerprint();
+        try {
+            if (Files.isRegularFile(file) && fingerprintOf(file) == fingerprint) {
+                use(map(file));
+                return;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        var bytes = build(fingerprint);
+        try {
+            Files.createDirectories(file.getParent());
+            var tmp = Files.createTempFile(file.getParent(), "types", ".tmp");
+            Files.write(tmp, bytes);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            use(map(file));
+        } catch (IOException e) {
+            // not persisted, still usable for this session
+            e.printStackTrace();
+            use(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    private void use(ByteBuffer buf) {
+        count = buf.getInt(16);
+        data = buf;
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (var ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    /** Reads the header only, the file is not mapped if it is stale. */
+    private static long fingerprintOf(Path file) throws IOException {
+        try (var ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            var header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining()) {
+                if (ch.read(header) < 0) {
+                    break;
+                }
+            }
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt(0) != MAGIC || header.getInt(4) != FORMAT) {
+                return 0;
+            }
+            return header.getLong(8);
+        }
+    }
+
+    /**
+     * Identifies the JDK and the class path entries, by path, size and
+     * modification time. Classes added to a directory entry without touching
+     * the directory itself are picked up on the next change.
+     */
+    private long fingerprint() {
+        long h = 1125899906842597L;
+        if (jdk) {
+            h = 31 * h + System.getProperty("java.home", "").hashCode();
+            h = 31 * h + Runtime.version().toString().hashCode();
+        }
+        for (var entry : classpath) {
+            var f = entry.toFile();
+            h = 31 * h + entry.toAbsolutePath().toString().hashCode();
+            h = 31 * h + f.length();
+            h = 31 * h + f.lastModified();
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    private byte[] build(long fingerprint) {
+        var types = new HashSet<String>();
+        if (jdk) {
+            scanJdk(types);
+        }
+        for (var entry : classpath) {
+            try {
+                if (Files.isDirectory(entry)) {
+                    scanDirectory(entry, types);
+                } else if (Files.isRegularFile(entry)) {
+                    scanJar(entry, types);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        var entries = new ArrayList<byte[]>(types.size());
+        for (var fqn : types) {
+            int dot = fqn.lastIndexOf('.');
+            var entry = fqn.substring(dot + 1) + '\0' + (dot < 0 ? "" : fqn.substring(0, dot)) + '\0';
+            entries.add(entry.getBytes(StandardCharsets.UTF_8));
+        }
+        entries.sort(Arrays::compareUnsigned);
+
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(fingerprint);
+            out.writeInt(entries.size());
+            int offset = HEADER + 4 * entries.size();
+            for (var e : entries) {
+                out.writeInt(offset);
+                offset += e.length;
+            }
+            for (var e : entries) {
+                out.write(e);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Types of the packages the system modules export to everyone. */
+    private static void scanJdk(Set<String> types) {
+        var exported = new HashSet<String>();
+        for (var module : ModuleFinder.ofSystem().findAll()) {
+            for (var export : module.descriptor().exports()) {
+                if (!export.isQualified()) {
+                    exported.add(module.descriptor().name() + '/' + export.source());
+                }
+            }
+        }
+        var modules = FileSystems.getFileSystem(URI.create("jrt:/")).getPath("/modules");
+        try (var files = Files.walk(modules)) {
+            files.forEach(p -> {
+                if (p.getNameCount() < 3) {
+                    return;
+                }
+                var module = p.getName(1).toString();
+                var fqn = typeName(p.subpath(2, p.getNameCount()).toString());
+                try {
+                    if (fqn != null && fqn.indexOf('.') > 0
+                            && exported.contains(module + '/' + fqn.substring(0, fqn.lastIndexOf('.')))
+                            && isPublic(Files.readAllBytes(p))) {
+                        types.add(fqn);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void scanDirectory(Path dir, Set<String> types) throws IOException {
+        try (var files = Files.walk(dir)) {
+            files.forEach(p -> {
+                var fqn = typeName(dir.relativize(p).toString().replace(File.separatorChar, '/'));
+                try {
+                    if (fqn != null && isPublic(Files.readAllBytes(p))) {
+                        types.add(fqn);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+
+    private static void scanJar(Path jar, Set<String> types) throws IOException {
+        try (var jf = new JarFile(jar.toFile())) {
+            var entries = jf.entries();
+            while (entries.hasMoreElements()) {
+                var entry = entries.nextElement();
+                var fqn = typeName(entry.getName());
+                if (fqn != null) {
+                    try (var in = jf.getInputStream(entry)) {
+                        if (isPublic(in.readAllBytes())) {
+                            types.add(fqn);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the access flags of a class file, after skipping its constant
+     * pool.
+     */
+    static boolean isPublic(byte[] classFile) {
+        var buf = ByteBuffer.wrap(classFile);
+        try {
+            if (buf.getInt(0) != 0xcafebabe) {
+                return false;
+            }
+            int entries = buf.getShort(8) & 0xffff;
+            int pos = 10;
+            for (int i = 1; i < entries; i++) {
+                int tag = buf.get(pos);
+                switch (tag) {
+                case 1: // Utf8
+                    pos += 3 + (buf.getShort(pos + 1) & 0xffff);
+                    break;
+                case 5: // Long
+                case 6: // Double, takes two entries
+                    pos += 9;
+                    i++;
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    pos += 3;
+                    break;
+                case 15: // MethodHandle
+                    pos += 4;
+                    break;
+                default: // Integer, Float, refs, NameAndType, (Invoke)Dynamic
+                    pos += 5;
+                    break;
+                }
+            }
+            return (buf.getShort(pos) & ACC_PUBLIC) != 0;
+        } catch (IndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    /**
+     * {@code java/util/Map.class} to {@code java.util.Map}, null for nested
+     * and synthetic classes, package and module descriptors and multi-release
+     * duplicates.
+     */
+    private static String typeName(String path) {
+        if (!path.endsWith(".class") || path.indexOf('$') >= 0 || path.startsWith("META-INF/")) {
+            return null;
+        }
+        var name = path.substring(0, path.length() - ".class".length());
+        if (name.endsWith("module-info") || name.endsWith("package-info")) {
+            return null;
+        }
+        return name.replace('/', '.');
+    }
+
+}
@@ -0,0 +1,182 @@
+package org.decent.conch;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Renders values like JShell does, but bounded in length and time, so that
+ * evaluating a huge collection does not build a huge string. Collections,
+ * maps and arrays are rendered element by element up to the length limit,
+ * unless they are small and have a {@code toString} of their own; strings are
+ * cut. The time limit is checked between elements: a single slow
+ * {@code toString} is not interrupted, but its result is cut too.
+ */
+final class ValuePreview {
+
+    /** The length of a preview, not counting the ellipsis and the size. */
+    static final int MAX_LENGTH = 1000;
+    private static final int SMALL = 100;
+    private static final int MAX_DEPTH = 4;
+    private static final long BUDGET_NANOS = 50_000_000;
+
+    private final StringBuilder sb = new StringBuilder();
+    private final int maxLength;
+    private final long deadline;
+
+    private ValuePreview(int maxLength) {
+        this.maxLength = maxLength;
+        this.deadline = System.nanoTime() + BUDGET_NANOS;
+    }
+
+    static String of(Object value) {
+        return of(value, MAX_LENGTH);
+    }
+
+    static String of(Object value, int maxLength) {
+        var preview = new ValuePreview(maxLength);
+        preview.append(value, 0);
+        return preview.sb.toString();
+    }
+
+    /**
+     * The number of elements of a collection, map or array, -1 for other
+     * values.
+     */
+    static int sizeOf(Object value) {
+        if (value instanceof Collection) {
+            return ((Collection<?>) value).size();
+        }
+        if (value instanceof Map) {
+            return ((Map<?, ?>) value).size();
+        }
+        if (value != null && value.getClass().isArray()) {
+            return Array.getLength(value);
+        }
+        return -1;
+    }
+
+    private boolean full() {
+        return sb.length() >= maxLength || System.nanoTime() > deadline;
+    }
+
+    private void append(Object value, int depth) {
+        if (value instanceof String) {
+            var s = (String) value;
+            int room = Math.max(0, maxLength - sb.length());
+            if (s.length() <= room) {
+                sb.append(ConchExecutionControl.render(s));
+            } else {
+                sb.append(ConchExecutionControl.render(s.substring(0, room))).append('\u2026');
+                if (depth == 0) {
+                    sb.append(" (").append(s.length()).append(" chars)");
+                }
+            }
+        } else if (value != null && value.getClass().isArray()) {
+            appendArray(value, depth);
+        } else if (value instanceof Collection && rendersElements(value)) {
+            appendElements(((Collection<?>) value), '[', ']', depth);
+        } else if (value instanceof Map && rendersElements(value)) {
+            appendElements(((Map<?, ?>) value).entrySet(), '{', '}', depth);
+        } else if (value instanceof Map.Entry && depth > 0) {
+            var entry = (Map.Entry<?, ?>) value;
+            append(entry.getKey(), depth);
+            sb.append('=');
+            append(entry.getValue(), depth);
+        } else {
+            appendString(value);
+        }
+    }
+
+    /**
+     * Whether a collection or map is rendered here rather than by its own
+     * {@code toString}, which is used for small ones that override it.
+     */
+    private static boolean rendersElements(Object value) {
+        if (sizeOf(value) > SMALL) {
+            return true;
+        }
+        try {
+            var declaring = value.getClass().getMethod("toString").getDeclaringClass();
+            return declaring.getName().startsWith("java.");
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
+    private void appendString(Object value) {
+        String s;
+        try {
+            s = value instanceof Character ? ConchExecutionControl.render(value) : String.valueOf(value);
+        } catch (RuntimeException | StackOverflowError e) {
+            s = "<" + e.getClass().getName() + " in toString>";
+        }
+        int room = Math.max(0, maxLength - sb.length());
+        if (s.length() <= room) {
+            sb.append(s);
+        } else {
+            sb.append(s, 0, room).append('\u2026');
+        }
+    }
+
+    private void appendElements(Collection<?> elements, char open, char close, int depth) {
+        int size = elements.size();
+        sb.append(open);
+        if (depth >= MAX_DEPTH) {
+            sb.append('\u2026').append(close);
+            return;
+        }
+        int count = 0;
+        try {
+            for (var e : elements) {
+                if (full()) {
+                    break;
+                }
+                if (count > 0) {
+                    sb.append(", ");
+                }
+                append(e, depth + 1);
+                count++;
+            }
+        } catch (RuntimeException e) {
+            // modified meanwhile, show what was read
+        }
+        if (count < size) {
+            sb.append(count > 0 ? ", " : "").append("\u2026 ").append(size - count).append(" more");
+        }
+        sb.append(close);
+    }
+
+    /** Like JShell, {@code int[3] { 1, 2, 3 }} */
+    private void appendArray(Object array, int depth) {
+        int length = Array.getLength(array);
+        var type = array.getClass().getComponentType();
+        int dims = 0;
+        while (type.isArray()) {
+            type = type.getComponentType();
+            dims++;
+        }
+        var name = type.getTypeName();
+        sb.append(name, name.lastIndexOf('.') + 1, name.length()).append('[').append(length).append(']');
+        for (int i = 0; i < dims; i++) {
+            sb.append("[]");
+        }
+        sb.append(" { ");
+        if (depth >= MAX_DEPTH) {
+            sb.append("\u2026 }");
+            return;
+        }
+        int count = 0;
+        for (; count < length && !full(); count++) {
+            if (count > 0) {
+                sb.append(", ");
+            }
+            append(Array.get(array, count), depth + 1);
+        }
+        if (count < length) {
+            sb.append(count > 0 ? ", " : "").append("\u2026 ").append(length - count).append(" more");
+        }
+        sb.append(" }");
+    }
+
+}
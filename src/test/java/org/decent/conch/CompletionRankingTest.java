@@ -0,0 +1,121 @@
+package org.decent.conch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+class CompletionRankingTest {
+
+    private static final long FREQUENT = CompletionRanking.key("frequent");
+
+    @Test
+    void boostsAcceptedCompletions() {
+        var ranking = new CompletionRanking();
+        long once = CompletionRanking.key("once");
+        long often = CompletionRanking.key("often");
+        assertEquals(0, ranking.boost(once));
+        ranking.accepted(once);
+        for (int i = 0; i < 100; i++) {
+            ranking.accepted(often);
+        }
+        assertTrue(ranking.boost(once) > 0);
+        assertTrue(ranking.boost(often) > ranking.boost(once));
+    }
+
+    @Test
+    void recentAcceptanceOutranksOldOne() {
+        var ranking = new CompletionRanking();
+        long old = CompletionRanking.key("old");
+        long recent = CompletionRanking.key("recent");
+        ranking.accepted(old);
+        ranking.accepted(recent);
+        assertTrue(ranking.boost(recent) > ranking.boost(old));
+    }
+
+    @Test
+    void evictionForgetsCompletionsAcceptedOnce() {
+        var ranking = new CompletionRanking();
+        for (int i = 0; i < 10; i++) {
+            ranking.accepted(FREQUENT);
+        }
+        for (int i = 1; i < CompletionRanking.MAX_ENTRIES; i++) {
+            ranking.accepted(i);
+        }
+        assertTrue(ranking.boost(1) > 0);
+
+        long fresh = CompletionRanking.key("fresh");
+        ranking.accepted(fresh);
+        assertEquals(0, ranking.boost(1));
+        assertEquals(0, ranking.boost(CompletionRanking.MAX_ENTRIES - 1));
+        assertTrue(ranking.boost(FREQUENT) > 0);
+        assertTrue(ranking.boost(fresh) > 0);
+    }
+
+    @Test
+    void evictionKeepsMostRecentWhenHalvingFreesNothing() {
+        var ranking = new CompletionRanking();
+        for (int i = 1; i <= CompletionRanking.MAX_ENTRIES; i++) {
+            ranking.accepted(i);
+            ranking.accepted(i);
+        }
+        long fresh = CompletionRanking.key("fresh");
+        ranking.accepted(fresh);
+        assertEquals(0, ranking.boost(1));
+        assertTrue(ranking.boost(CompletionRanking.MAX_ENTRIES) > 0);
+        assertTrue(ranking.boost(fresh) > 0);
+
+        // room is left for more completions before the next eviction
+        for (int i = 1; i <= CompletionRanking.MAX_ENTRIES / 8; i++) {
+            ranking.accepted(-i);
+        }
+        assertTrue(ranking.boost(CompletionRanking.MAX_ENTRIES) > 0);
+        assertTrue(ranking.boost(-1) > 0);
+    }
+
+    @Test
+    void survivesSaveAndLoad() throws IOException {
+        var ranking = new CompletionRanking();
+        for (int i = 1; i <= 1000; i++) {
+            for (int n = 0; n < i % 7; n++) {
+                ranking.accepted(i);
+            }
+        }
+        var dir = Files.createTempDirectory("ranking");
+        var file = dir.resolve("ranking.bin");
+        try {
+            ranking.save(file);
+            var loaded = new CompletionRanking();
+            loaded.load(file);
+            for (int i = 1; i <= 1001; i++) {
+                assertEquals(ranking.boost(i), loaded.boost(i), "boost of " + i);
+            }
+
+            // acceptances continue from the saved tick
+            ranking.accepted(2000);
+            loaded.accepted(2000);
+            assertEquals(ranking.boost(999), loaded.boost(999));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void ignoresFileOfOtherFormat() throws IOException {
+        var file = Files.createTempFile("ranking", ".bin");
+        try {
+            Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+            var ranking = new CompletionRanking();
+            ranking.accepted(1);
+            ranking.load(file);
+            assertTrue(ranking.boost(1) > 0);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package org.decent.conch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class NoticeStoreTest {
+
+    private NoticeStore store;
+
+    /** Notices "a" at [0, 5) on line 0, "b" at [10, 15) on line 1, "c" at [20, 25) on line 2 */
+    @BeforeEach
+    void addNotices() {
+        store = new NoticeStore();
+        store.add(Notice.error(0, 5, "a"), 0, 5, 0);
+        store.add(Notice.error(10, 15, "b"), 10, 15, 1);
+        store.add(Notice.info(20, 25, "c"), 20, 25, 2);
+    }
+
+    /** The notices as "message start-end:line" */
+    private List<String> notices() {
+        var ret = new ArrayList<String>();
+        store.forEach(0, Integer.MAX_VALUE,
+                (notice, start, end, line) -> ret.add(notice.message(null) + " " + start + "-" + end + ":" + line));
+        return ret;
+    }
+
+    @Test
+    void keepsNoticesOrderedByStart() {
+        var store = new NoticeStore();
+        store.add(Notice.error(0, 1, "late"), 30, 31, 3);
+        store.add(Notice.error(0, 1, "early"), 3, 4, 0);
+        store.add(Notice.error(0, 1, "same"), 3, 5, 0);
+        var messages = new ArrayList<String>();
+        store.forEach(0, 100, (notice, start, end, line) -> messages.add(notice.message(null)));
+        assertEquals(List.of("early", "same", "late"), messages);
+    }
+
+    @Test
+    void shiftsNoticesAfterInsert() {
+        store.inserted(7, 3, 1);
+        assertEquals(List.of("a 0-5:0", "b 13-18:2", "c 23-28:3"), notices());
+    }
+
+    @Test
+    void shiftsNoticeStartingAtInsert() {
+        store.inserted(10, 2, 0);
+        assertEquals(List.of("a 0-5:0", "b 12-17:1", "c 22-27:2"), notices());
+    }
+
+    @Test
+    void keepsNoticeEndingAtInsert() {
+        store.inserted(15, 2, 0);
+        assertEquals(List.of("a 0-5:0", "b 10-15:1", "c 22-27:2"), notices());
+    }
+
+    @Test
+    void dropsNoticeInsertedInto() {
+        store.inserted(12, 1, 0);
+        assertEquals(List.of("a 0-5:0", "c 21-26:2"), notices());
+    }
+
+    @Test
+    void shiftsNoticesAfterRemove() {
+        store.removed(6, 3, 1);
+        assertEquals(List.of("a 0-5:0", "b 7-12:0", "c 17-22:1"), notices());
+    }
+
+    @Test
+    void dropsNoticesOverlappingRemove() {
+        store.removed(4, 8, 1);
+        assertEquals(List.of("c 12-17:1"), notices());
+    }
+
+    @Test
+    void removesRange() {
+        store.removeRange(3, 12);
+        assertEquals(List.of("c 20-25:2"), notices());
+    }
+
+    @Test
+    void removeRangeKeepsAdjacentNotices() {
+        store.removeRange(5, 10);
+        assertEquals(List.of("a 0-5:0", "b 10-15:1", "c 20-25:2"), notices());
+    }
+
+    @Test
+    void removeRangeDropsEmptyNoticesWithin() {
+        store.add(Notice.error(7, 7, "empty"), 7, 7, 0);
+        store.removeRange(6, 9);
+        assertEquals(List.of("a 0-5:0", "b 10-15:1", "c 20-25:2"), notices());
+    }
+
+    @Test
+    void visitsNoticesTouchingRange() {
+        var messages = new ArrayList<String>();
+        store.forEach(5, 10, (notice, start, end, line) -> messages.add(notice.message(null)));
+        assertEquals(List.of("a", "b"), messages);
+    }
+
+    @Test
+    void findsLongNoticeStartingBeforeRange() {
+        store.add(Notice.error(0, 40, "long"), 1, 40, 0);
+        store.removed(30, 2, 0);
+        assertEquals(List.of("a 0-5:0", "b 10-15:1", "c 20-25:2"), notices());
+    }
+
+    @Test
+    void clears() {
+        store.clear();
+        assertEquals(0, store.size());
+        store.add(Notice.error(0, 1, "x"), 0, 1, 0);
+        assertEquals(List.of("x 0-1:0"), notices());
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.decent.conch;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.decent.conch.ConchCompletionProvider.Signature;
+import org.junit.jupiter.api.Test;
+
+class SignatureTest {
+
+    @Test
+    void parsesPlainMethod() {
+        var sig = Signature.tryParse("void java.util.Arrays.sort(int[] a, int fromIndex, int toIndex)");
+        assertEquals("void", sig.returnType);
+        assertEquals("java.util.Arrays.sort", sig.fqn);
+        assertEquals("sort", sig.name);
+        assertEquals(3, sig.arity);
+        assertArrayEquals(new String[] { "int[]", "int", "int" }, sig.paramTypes);
+        assertArrayEquals(new String[] { "a", "fromIndex", "toIndex" }, sig.paramNames);
+    }
+
+    @Test
+    void parsesNoParameters() {
+        var sig = Signature.tryParse("void java.lang.Thread.run()");
+        assertEquals("run", sig.name);
+        assertEquals(0, sig.arity);
+    }
+
+    @Test
+    void parsesVarargs() {
+        var sig = Signature.tryParse(
+                "java.lang.String java.lang.String.format(java.lang.String format, java.lang.Object... args)");
+        assertEquals("java.lang.String", sig.returnType);
+        assertEquals("format", sig.name);
+        assertArrayEquals(new String[] { "java.lang.String", "java.lang.Object..." }, sig.paramTypes);
+        assertArrayEquals(new String[] { "format", "args" }, sig.paramNames);
+    }
+
+    @Test
+    void parsesGenericMethod() {
+        var sig = Signature.tryParse("java.util.Map<K,V> java.util.Map.<K,V>of(K k1, V v1)");
+        assertEquals("java.util.Map<K,V>", sig.returnType);
+        assertEquals("java.util.Map.of", sig.fqn);
+        assertEquals("of", sig.name);
+        assertArrayEquals(new String[] { "K", "V" }, sig.paramTypes);
+    }
+
+    @Test
+    void keepsCommasOfTypeArgumentsInParameters() {
+        var sig = Signature.tryParse("java.util.Map<K,V> java.util.Map.<K,V>ofEntries("
+                + "java.util.Map.Entry<? extends K,? extends V>... entries)");
+        assertEquals(1, sig.arity);
+        assertArrayEquals(new String[] { "java.util.Map.Entry<? extends K,? extends V>..." }, sig.paramTypes);
+        assertArrayEquals(new String[] { "entries" }, sig.paramNames);
+    }
+
+    @Test
+    void parsesArrays() {
+        var sig = Signature.tryParse("int[][] Foo.grid(java.util.List<int[]> rows, String[]... more)");
+        assertEquals("int[][]", sig.returnType);
+        assertEquals("grid", sig.name);
+        assertArrayEquals(new String[] { "java.util.List<int[]>", "String[]..." }, sig.paramTypes);
+        assertArrayEquals(new String[] { "rows", "more" }, sig.paramNames);
+    }
+
+    @Test
+    void parsesConstructor() {
+        var sig = Signature.tryParse("java.util.HashMap<K,V>(java.util.Map<? extends K,? extends V> m)");
+        assertEquals("", sig.returnType);
+        assertEquals("java.util.HashMap", sig.fqn);
+        assertEquals("HashMap", sig.name);
+        assertArrayEquals(new String[] { "java.util.Map<? extends K,? extends V>" }, sig.paramTypes);
+    }
+
+    @Test
+    void namesUnnamedParameters() {
+        var sig = Signature.tryParse("void Foo.bar(int, java.lang.String)");
+        assertArrayEquals(new String[] { "int", "java.lang.String" }, sig.paramTypes);
+        assertArrayEquals(new String[] { "arg0", "arg1" }, sig.paramNames);
+    }
+
+    @Test
+    void rejectsWhatIsNoSignature() {
+        assertNull(Signature.tryParse("java.lang.String"));
+        assertNull(Signature.tryParse("void foo(int a"));
+    }
+
+}
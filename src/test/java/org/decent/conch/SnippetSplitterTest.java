@@ -0,0 +1,136 @@
+package org.decent.conch;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import jdk.jshell.JShell;
+import jdk.jshell.SourceCodeAnalysis;
+
+class SnippetSplitterTest {
+
+    private static JShell shell;
+    private static SourceCodeAnalysis analyzer;
+
+    @BeforeAll
+    static void createShell() {
+        shell = JShell.create();
+        analyzer = shell.sourceCodeAnalysis();
+    }
+
+    @AfterAll
+    static void closeShell() {
+        shell.close();
+    }
+
+    private static List<String> split(String text) {
+        return SnippetSplitter.split(analyzer, text).stream()
+                .map(range -> range.source.strip())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void splitsStatements() {
+        assertEquals(List.of("int a = 1;", "int b = a + 1;"), split("int a = 1;\nint b = a + 1;\n"));
+    }
+
+    @Test
+    void keepsBracelessIfWithElse() {
+        assertEquals(List.of("if (x) a();\nelse b();", "int y = 1;"), split("if (x) a();\nelse b();\nint y = 1;"));
+    }
+
+    @Test
+    void keepsNestedBracelessIfElse() {
+        assertEquals(List.of("if (a) if (b) c(); else d(); else e();", "f();"),
+                split("if (a) if (b) c(); else d(); else e();\nf();"));
+    }
+
+    @Test
+    void keepsDoWhile() {
+        assertEquals(List.of("do i++; while (i < 3);", "int z;"), split("do i++; while (i < 3);\nint z;"));
+        assertEquals(List.of("do { i++; } while (i < 3);", "int z;"), split("do { i++; } while (i < 3);\nint z;"));
+    }
+
+    @Test
+    void ignoresDelimitersInTextBlocks() {
+        var text = "var s = \"\"\"\n  a; }\n  \"\"\";\nint k = 2;";
+        assertEquals(List.of("var s = \"\"\"\n  a; }\n  \"\"\";", "int k = 2;"), split(text));
+    }
+
+    @Test
+    void ignoresDelimitersInStringsAndComments() {
+        assertEquals(List.of("var s = \"; }\";", "char c = ';';", "// b; }\n/* c; } */ int b = 2;"),
+                split("var s = \"; }\";\nchar c = ';';\n// b; }\n/* c; } */ int b = 2;"));
+    }
+
+    @Test
+    void rangesCoverLeadingComments() {
+        var text = "int a = 1; // b; }\n/* c; } */ int b = 2;";
+        var ranges = SnippetSplitter.split(analyzer, text);
+        assertEquals(2, ranges.size());
+        assertEquals(0, ranges.get(0).start);
+        assertEquals(ranges.get(0).end, ranges.get(1).start);
+        assertEquals(text.length(), ranges.get(1).end);
+    }
+
+    @Test
+    void addsMissingSemicolon() {
+        assertEquals(List.of("class A { void m() { } }", "A x = new A();"),
+                split("class A { void m() { } }\nA x = new A()"));
+    }
+
+    @Test
+    void stopsAtIncompleteSnippet() {
+        var ranges = SnippetSplitter.split(analyzer, "int a = 1;\nvoid m() {\n  int b;\n");
+        assertEquals(2, ranges.size());
+        assertFalse(ranges.get(1).isComplete());
+    }
+
+    @Test
+    void skipsTrailingComments() {
+        assertNull(SnippetSplitter.next(analyzer, "int a = 1; // done\n", 10));
+    }
+
+    @Test
+    void findsEnclosingSnippet() {
+        var text = "int a = 1;\nif (a > 0) a--;\nelse a++;\nint b = a;";
+        int second = text.indexOf('\n');
+        int third = text.indexOf("\nint b");
+        var boundaries = new SnippetBoundaries();
+        boundaries.reset(1);
+        assertArrayEquals(new int[] { second, third }, boundaries.enclosing(analyzer, text, text.indexOf("else"), 1));
+        assertArrayEquals(new int[] { 0, second }, boundaries.enclosing(analyzer, text, 3, 1));
+        assertArrayEquals(new int[] { third, text.length() }, boundaries.enclosing(analyzer, text, text.length(), 1));
+    }
+
+    @Test
+    void rescansAfterEdit() {
+        var boundaries = new SnippetBoundaries();
+        boundaries.reset(1);
+        var text = "int a = 1;\nint b = 2;\nint c = 3;";
+        boundaries.enclosing(analyzer, text, text.length(), 1);
+
+        // the second snippet becomes a braceless if with an else
+        var edited = "int a = 1;\nif (a > 0) b();\nelse c();\nint c = 3;";
+        boundaries.edited(11, 2);
+        int third = edited.indexOf("\nint c");
+        assertArrayEquals(new int[] { 10, third }, boundaries.enclosing(analyzer, edited, 12, 2));
+    }
+
+    @Test
+    void answersStaleVersionWithWholeText() {
+        var boundaries = new SnippetBoundaries();
+        boundaries.reset(1);
+        var text = "int a = 1;\nint b = 2;";
+        assertArrayEquals(new int[] { 0, text.length() }, boundaries.enclosing(analyzer, text, 3, 2));
+    }
+
+}